@@ -13,9 +13,13 @@ public class Player {
      */
     private final Camp camp;
     /**
-     * 频道ID
+     * 会话句柄
      */
-    private String channelId;
+    private int sessionId;
+    /**
+     * 房间内的槽位下标
+     */
+    private int slot;
     /**
      * 玩家名称
      */
@@ -40,12 +44,20 @@ public class Player {
         return camp;
     }
 
-    public String getChannelId() {
-        return channelId;
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public int getSlot() {
+        return slot;
     }
 
-    public void setChannelId(String channelId) {
-        this.channelId = channelId;
+    public void setSlot(int slot) {
+        this.slot = slot;
     }
 
     public void setName(String name) {
@@ -72,7 +84,7 @@ public class Player {
     public String toString() {
         return new ToStringBuilder(this)
                 .append("campId", camp)
-                .append("channelId", channelId)
+                .append("sessionId", sessionId)
                 .append("name", name)
                 .toString();
     }
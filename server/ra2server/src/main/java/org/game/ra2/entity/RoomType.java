@@ -1,22 +1,53 @@
 package org.game.ra2.entity;
 
+import org.game.ra2.util.ServerConfig;
+
 /**
  * 房间类型枚举
  */
 public enum RoomType {
-    SOLO(1), 
-    DUO(2), 
-    TRIO(3), 
-    QUAD(4), 
+    SOLO(1),
+    DUO(2),
+    TRIO(3),
+    QUAD(4),
     OCTO(8);
 
     private final int maxPlayers;
+    /**
+     * 帧率（每秒帧数），默认取 ra2.room.tickRate，可按类型用 ra2.room.tickRate.duo 等覆盖
+     */
+    private final int tickRate;
+    /**
+     * 每条帧同步附带之前多少帧的输入（仅对声明了redundantFrames的客户端），默认取 ra2.room.redundantFrames，
+     * 可按类型用 ra2.room.redundantFrames.duo 等覆盖，0表示关闭
+     */
+    private final int redundantFrames;
 
     RoomType(int maxPlayers) {
         this.maxPlayers = maxPlayers;
+        int defaultTickRate = ServerConfig.getInt("ra2.room.tickRate", 20);
+        int tickRate = ServerConfig.getInt("ra2.room.tickRate." + name().toLowerCase(), defaultTickRate);
+        this.tickRate = Math.max(1, Math.min(tickRate, 1000));
+        int defaultRedundantFrames = ServerConfig.getInt("ra2.room.redundantFrames", 0);
+        this.redundantFrames = Math.max(0, ServerConfig.getInt("ra2.room.redundantFrames." + name().toLowerCase(), defaultRedundantFrames));
     }
 
     public int getMaxPlayers() {
         return maxPlayers;
     }
-}
\ No newline at end of file
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public int getRedundantFrames() {
+        return redundantFrames;
+    }
+
+    /**
+     * 帧间隔（纳秒）
+     */
+    public long getTickIntervalNanos() {
+        return 1_000_000_000L / tickRate;
+    }
+}
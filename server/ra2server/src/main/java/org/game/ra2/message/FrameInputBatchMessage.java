@@ -0,0 +1,101 @@
+package org.game.ra2.message;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 批量帧输入，一条消息携带同一玩家多个帧的输入
+ * <p>
+ * 构造时按帧号升序排列并去重，同一帧出现多次时保留消息中靠后的一条，
+ * 房间线程按顺序逐帧处理即可。
+ */
+public final class FrameInputBatchMessage extends Message {
+    /**
+     * 单条消息最多携带的帧数，超过时视为格式错误
+     */
+    public static final int MAX_FRAMES = 128;
+
+    private final int[] frames;
+    private final byte[][] inputs;
+    private final int count;
+
+    /**
+     * @param sessionId 会话句柄
+     * @param slot 房间内的槽位下标
+     * @param frames 帧号，与inputs按下标对应，会被原地排序
+     * @param inputs 各帧的输入数据，已规范化的UTF-8 JSON数组，不可修改
+     * @param count 帧数
+     */
+    public FrameInputBatchMessage(int sessionId, int slot, int[] frames, byte[][] inputs, int count) {
+        super(sessionId, slot);
+        this.frames = frames;
+        this.inputs = inputs;
+        this.count = sortUnique(frames, inputs, count);
+    }
+
+    /**
+     * 插入排序（稳定，帧数很少且通常已有序），再合并相同帧号只保留最后一条
+     * @return 去重后的帧数
+     */
+    private static int sortUnique(int[] frames, byte[][] inputs, int count) {
+        for (int i = 1; i < count; i++) {
+            int frame = frames[i];
+            byte[] data = inputs[i];
+            int j = i - 1;
+            while (j >= 0 && frames[j] > frame) {
+                frames[j + 1] = frames[j];
+                inputs[j + 1] = inputs[j];
+                j--;
+            }
+            frames[j + 1] = frame;
+            inputs[j + 1] = data;
+        }
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique > 0 && frames[unique - 1] == frames[i]) {
+                inputs[unique - 1] = inputs[i];
+            } else {
+                frames[unique] = frames[i];
+                inputs[unique] = inputs[i];
+                unique++;
+            }
+        }
+        return unique;
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.FRAME_INPUT_BATCH;
+    }
+
+    /**
+     * 帧数（已去重）
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 第index帧的帧号，按升序排列
+     */
+    public int getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * 第index帧的输入数据
+     */
+    public byte[] getInputs(int index) {
+        return inputs[index];
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("sessionId", getSessionId())
+                .append("slot", getSlot())
+                .append("count", count)
+                .append("from", count > 0 ? frames[0] : -1)
+                .append("to", count > 0 ? frames[count - 1] : -1)
+                .toString();
+    }
+}
@@ -0,0 +1,81 @@
+package org.game.ra2.message;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 帧输入
+ */
+public final class FrameInputMessage extends Message {
+    /**
+     * 空输入（JSON空数组），所有空输入共享同一实例，不可修改
+     */
+    public static final byte[] EMPTY_INPUTS = "[]".getBytes(StandardCharsets.US_ASCII);
+
+    private final int frame;
+    private final byte[] inputs;
+
+    /**
+     * @param sessionId 会话句柄
+     * @param slot 房间内的槽位下标
+     * @param frame 帧号
+     * @param inputs 输入数据，已规范化的UTF-8 JSON数组，不可修改
+     */
+    public FrameInputMessage(int sessionId, int slot, int frame, byte[] inputs) {
+        super(sessionId, slot);
+        this.frame = frame;
+        this.inputs = inputs;
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.FRAME_INPUT;
+    }
+
+    public int getFrame() {
+        return frame;
+    }
+
+    public byte[] getInputs() {
+        return inputs;
+    }
+
+    /**
+     * 输入是否为空
+     */
+    public static boolean isEmpty(byte[] inputs) {
+        return inputs.length <= EMPTY_INPUTS.length;
+    }
+
+    /**
+     * 合并两条输入为一个JSON数组，按先first后second的顺序
+     * @param first 规范化的输入数据
+     * @param second 规范化的输入数据
+     * @return 合并后的输入，其中一条为空时直接返回另一条
+     */
+    public static byte[] concat(byte[] first, byte[] second) {
+        if (isEmpty(first)) {
+            return second;
+        }
+        if (isEmpty(second)) {
+            return first;
+        }
+        // [a,b] + [c] -> [a,b,c]
+        byte[] merged = new byte[first.length + second.length - 1];
+        System.arraycopy(first, 0, merged, 0, first.length - 1);
+        merged[first.length - 1] = ',';
+        System.arraycopy(second, 1, merged, first.length, second.length - 1);
+        return merged;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("sessionId", getSessionId())
+                .append("slot", getSlot())
+                .append("frame", frame)
+                .append("inputs", new String(inputs, StandardCharsets.UTF_8))
+                .toString();
+    }
+}
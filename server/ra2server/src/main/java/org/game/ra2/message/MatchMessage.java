@@ -0,0 +1,62 @@
+package org.game.ra2.message;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 匹配请求
+ */
+public final class MatchMessage extends Message {
+    private final String name;
+    private final String roomType;
+    private final int features;
+
+    public MatchMessage(int sessionId, int slot, String name, String roomType) {
+        this(sessionId, slot, name, roomType, 0);
+    }
+
+    /**
+     * @param features 客户端声明的可选功能位掩码，见ClientFeature
+     */
+    public MatchMessage(int sessionId, int slot, String name, String roomType, int features) {
+        super(sessionId, slot);
+        this.name = name;
+        this.roomType = roomType;
+        this.features = features;
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.MATCH;
+    }
+
+    /**
+     * 玩家名称，未提供时为null
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 房间类型，未提供时为null
+     */
+    public String getRoomType() {
+        return roomType;
+    }
+
+    /**
+     * 客户端声明的可选功能位掩码
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("sessionId", getSessionId())
+                .append("name", name)
+                .append("roomType", roomType)
+                .append("features", features)
+                .toString();
+    }
+}
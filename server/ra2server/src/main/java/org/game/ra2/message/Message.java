@@ -0,0 +1,48 @@
+package org.game.ra2.message;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 客户端消息基类，由IO线程解码生成，不可变
+ */
+public abstract class Message {
+    private final int sessionId;
+    private final int slot;
+
+    /**
+     * @param sessionId 发送者的会话句柄
+     * @param slot 发送者在房间内的槽位下标，不在房间中时为-1
+     */
+    protected Message(int sessionId, int slot) {
+        this.sessionId = sessionId;
+        this.slot = slot;
+    }
+
+    /**
+     * 发送者的会话句柄
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 发送者在房间内的槽位下标，不在房间中时为-1
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * 消息类型
+     */
+    public abstract MessageType getType();
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("sessionId", sessionId)
+                .append("slot", slot)
+                .append("type", getType())
+                .toString();
+    }
+}
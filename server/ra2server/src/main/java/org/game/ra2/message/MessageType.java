@@ -0,0 +1,56 @@
+package org.game.ra2.message;
+
+/**
+ * 客户端消息类型
+ */
+public enum MessageType {
+    MATCH("match"),
+    READY("ready"),
+    FRAME_INPUT("frameInput"),
+    FRAME_INPUT_BATCH("frameInputBatch"),
+    LEAVE("leave"),
+    PING("ping"),
+    TIME_SYNC("timeSync");
+
+    /**
+     * 协议中的type字段值
+     */
+    private final String wireName;
+
+    MessageType(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * 根据协议中的type字段获取消息类型
+     * @param wireName type字段值
+     * @return 消息类型，未知类型返回null
+     */
+    public static MessageType fromWireName(String wireName) {
+        if (wireName == null) {
+            return null;
+        }
+        switch (wireName) {
+            case "match":
+                return MATCH;
+            case "ready":
+                return READY;
+            case "frameInput":
+                return FRAME_INPUT;
+            case "frameInputBatch":
+                return FRAME_INPUT_BATCH;
+            case "leave":
+                return LEAVE;
+            case "ping":
+                return PING;
+            case "timeSync":
+                return TIME_SYNC;
+            default:
+                return null;
+        }
+    }
+}
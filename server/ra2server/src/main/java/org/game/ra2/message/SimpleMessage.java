@@ -0,0 +1,18 @@
+package org.game.ra2.message;
+
+/**
+ * 不带数据的消息（ready、leave、ping）
+ */
+public final class SimpleMessage extends Message {
+    private final MessageType type;
+
+    public SimpleMessage(int sessionId, int slot, MessageType type) {
+        super(sessionId, slot);
+        this.type = type;
+    }
+
+    @Override
+    public MessageType getType() {
+        return type;
+    }
+}
@@ -0,0 +1,27 @@
+package org.game.ra2.message;
+
+/**
+ * 时间同步请求，携带客户端的发送时间，服务器在回复中原样返回
+ */
+public final class TimeSyncMessage extends Message {
+    private final double clientTime;
+
+    /**
+     * @param sessionId 会话句柄
+     * @param slot 房间内的槽位下标，不在房间中时为-1
+     * @param clientTime 客户端发送时间，单位由客户端决定
+     */
+    public TimeSyncMessage(int sessionId, int slot, double clientTime) {
+        super(sessionId, slot);
+        this.clientTime = clientTime;
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.TIME_SYNC;
+    }
+
+    public double getClientTime() {
+        return clientTime;
+    }
+}
@@ -0,0 +1,317 @@
+package org.game.ra2.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.game.ra2.message.FrameInputBatchMessage;
+import org.game.ra2.message.FrameInputMessage;
+import org.game.ra2.message.Message;
+import org.game.ra2.message.MessageType;
+import org.game.ra2.message.SimpleMessage;
+import org.game.ra2.message.TimeSyncMessage;
+
+import java.io.IOException;
+
+/**
+ * 二进制协议编解码
+ * <p>
+ * 每条消息以1字节消息类型开头，帧号和长度使用varint编码，阵营ID使用1字节，
+ * 输入数据为长度前缀的UTF-8 JSON数组（长度为0表示空输入）。
+ */
+public final class BinaryCodec {
+    // 客户端 -> 服务器
+    public static final byte FRAME_INPUT = 0x01;
+    public static final byte READY = 0x02;
+    public static final byte LEAVE = 0x03;
+    public static final byte PING = 0x04;
+    public static final byte TIME_SYNC = 0x05;
+    public static final byte FRAME_INPUT_BATCH = 0x06;
+    // 服务器 -> 客户端
+    public static final byte FRAME_SYNC = (byte) 0x81;
+    public static final byte FRAME_SYNC_BATCH = (byte) 0x82;
+    public static final byte EMPTY_FRAMES = (byte) 0x83;
+    public static final byte PONG = (byte) 0x84;
+    public static final byte RELAY_INPUT = (byte) 0x85;
+    public static final byte FRAME_SEALED = (byte) 0x86;
+    public static final byte TIME_SYNC_REPLY = (byte) 0x87;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * 下行消息类型名对应的二进制消息类型
+     * @param name 消息类型名，与JSON协议的type相同
+     * @return 消息类型（0~255），没有对应的二进制消息时返回-1
+     */
+    public static int typeOf(String name) {
+        switch (name) {
+            case "frameSync":
+                return FRAME_SYNC & 0xFF;
+            case "frameSyncBatch":
+                return FRAME_SYNC_BATCH & 0xFF;
+            case "emptyFrames":
+                return EMPTY_FRAMES & 0xFF;
+            case "pong":
+                return PONG & 0xFF;
+            case "relayInput":
+                return RELAY_INPUT & 0xFF;
+            case "frameSealed":
+                return FRAME_SEALED & 0xFF;
+            case "timeSync":
+                return TIME_SYNC_REPLY & 0xFF;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 解码客户端二进制消息
+     * @param sessionId 会话句柄
+     * @param slot 发送者在房间内的槽位下标，不在房间中时为-1
+     * @param in 消息内容
+     * @return 消息对象
+     * @throws IOException 消息格式错误
+     */
+    public static Message decode(int sessionId, int slot, ByteBuf in) throws IOException {
+        if (!in.isReadable()) {
+            throw new IOException("空的二进制消息");
+        }
+
+        byte type = in.readByte();
+        switch (type) {
+            case FRAME_INPUT:
+                int frame = readFrame(in);
+                return new FrameInputMessage(sessionId, slot, frame, readInputs(in));
+            case READY:
+                return new SimpleMessage(sessionId, slot, MessageType.READY);
+            case LEAVE:
+                return new SimpleMessage(sessionId, slot, MessageType.LEAVE);
+            case PING:
+                return new SimpleMessage(sessionId, slot, MessageType.PING);
+            case TIME_SYNC:
+                if (in.readableBytes() < Double.BYTES) {
+                    throw new IOException("时间同步消息长度错误: " + in.readableBytes());
+                }
+                return new TimeSyncMessage(sessionId, slot, in.readDouble());
+            case FRAME_INPUT_BATCH:
+                return decodeBatch(sessionId, slot, in);
+            default:
+                throw new IOException("未知的二进制消息类型: " + type);
+        }
+    }
+
+    /**
+     * 编码帧同步消息
+     * @param frame 帧号
+     * @param campIds 阵营ID，与inputs按下标对应
+     * @param inputs 各阵营的输入数据
+     * @param count 阵营数量
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeFrameSync(int frame, int[] campIds, byte[][] inputs, int count) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeByte(FRAME_SYNC);
+        writeFrame(out, frame, campIds, inputs, count);
+        return out;
+    }
+
+    /**
+     * 开始编码带冗余帧的帧同步消息：frameSync的内容之后是varint冗余帧覆盖的帧数K，
+     * varint冗余帧数M，随后M帧（格式与frameSync去掉类型字节后相同）。
+     * 冗余帧只包含之前K帧中有输入的帧，每帧只包含有输入的阵营，随后调用appendPreviousFrame追加
+     * @param frame 帧号
+     * @param campIds 阵营ID，与inputs按下标对应
+     * @param inputs 各阵营的输入数据
+     * @param count 阵营数量
+     * @param covered 冗余帧覆盖的帧数，即frame之前的covered帧
+     * @param prevFrames 冗余帧数
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf beginRedundantFrameSync(int frame, int[] campIds, byte[][] inputs, int count, int covered, int prevFrames) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeByte(FRAME_SYNC);
+        writeFrame(out, frame, campIds, inputs, count);
+        writeVarInt(out, covered);
+        writeVarInt(out, prevFrames);
+        return out;
+    }
+
+    /**
+     * 向带冗余帧的帧同步消息追加一个之前的帧
+     */
+    public static void appendPreviousFrame(ByteBuf out, int frame, int[] campIds, byte[][] inputs, int count) {
+        writeFrame(out, frame, campIds, inputs, count);
+    }
+
+    /**
+     * 编码空帧合并消息：varint起始帧号，varint帧数
+     * @param from 起始帧号
+     * @param to 结束帧号（含）
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeEmptyFrames(int from, int to) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer(11);
+        out.writeByte(EMPTY_FRAMES);
+        writeVarInt(out, from);
+        writeVarInt(out, to - from + 1);
+        return out;
+    }
+
+    /**
+     * 编码输入转发消息，格式与只包含一个阵营的frameSync相同
+     * @param frame 输入所属的帧号
+     * @param campId 阵营ID
+     * @param inputs 输入数据
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeRelayInput(int frame, int campId, byte[] inputs) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeByte(RELAY_INPUT);
+        writeVarInt(out, frame);
+        out.writeByte(1);
+        writeCampInputs(out, campId, inputs);
+        return out;
+    }
+
+    /**
+     * 编码封帧确认消息：varint帧号
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeFrameSealed(int frame) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer(6);
+        out.writeByte(FRAME_SEALED);
+        writeVarInt(out, frame);
+        return out;
+    }
+
+    /**
+     * 开始编码多帧补发消息，随后调用appendFrameSyncBatch追加frames帧
+     * @param frames 帧数
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf beginFrameSyncBatch(int frames) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeByte(FRAME_SYNC_BATCH);
+        writeVarInt(out, frames);
+        return out;
+    }
+
+    /**
+     * 向多帧补发消息追加一帧，格式与frameSync消息去掉类型字节后相同
+     */
+    public static void appendFrameSyncBatch(ByteBuf out, int frame, int[] campIds, byte[][] inputs, int count) {
+        writeFrame(out, frame, campIds, inputs, count);
+    }
+
+    private static void writeFrame(ByteBuf out, int frame, int[] campIds, byte[][] inputs, int count) {
+        writeVarInt(out, frame);
+        out.writeByte(count);
+        for (int i = 0; i < count; i++) {
+            writeCampInputs(out, campIds[i], inputs[i]);
+        }
+    }
+
+    private static void writeCampInputs(ByteBuf out, int campId, byte[] data) {
+        out.writeByte(campId);
+        if (FrameInputMessage.isEmpty(data)) {
+            writeVarInt(out, 0);
+        } else {
+            writeVarInt(out, data.length);
+            out.writeBytes(data);
+        }
+    }
+
+    /**
+     * 编码时间同步回复：float64客户端时间，int64收到请求时间，int64发送回复时间，
+     * 游戏已开始时再跟int64第0帧截止时间和varint帧间隔，时间单位为微秒
+     * @param inGame 所在房间的游戏是否已开始，否则不写入frameZero和tickInterval
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeTimeSync(double clientTime, long receiveTime, long sendTime, boolean inGame, long frameZero, long tickInterval) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer(38);
+        out.writeByte(TIME_SYNC_REPLY);
+        out.writeDouble(clientTime);
+        out.writeLong(receiveTime);
+        out.writeLong(sendTime);
+        if (inGame) {
+            out.writeLong(frameZero);
+            writeVarInt(out, (int) tickInterval);
+        }
+        return out;
+    }
+
+    /**
+     * 编码pong消息
+     */
+    public static ByteBuf encodePong() {
+        return PooledByteBufAllocator.DEFAULT.buffer(1).writeByte(PONG);
+    }
+
+    /**
+     * 批量帧输入：varint帧数，随后每帧为varint帧号 + 输入数据
+     */
+    private static FrameInputBatchMessage decodeBatch(int sessionId, int slot, ByteBuf in) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0 || count > FrameInputBatchMessage.MAX_FRAMES) {
+            throw new IOException("批量帧输入帧数错误: " + count);
+        }
+        int[] frames = new int[count];
+        byte[][] inputs = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frames[i] = readFrame(in);
+            inputs[i] = readInputs(in);
+        }
+        return new FrameInputBatchMessage(sessionId, slot, frames, inputs, count);
+    }
+
+    /**
+     * 读取帧号，与JSON协议相同不接受负数（varint按无符号编码，大于int范围的值解码为负数）
+     */
+    private static int readFrame(ByteBuf in) throws IOException {
+        int frame = readVarInt(in);
+        if (frame < 0) {
+            throw new IOException("帧号错误: " + frame);
+        }
+        return frame;
+    }
+
+    private static byte[] readInputs(ByteBuf in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.readableBytes()) {
+            throw new IOException("输入数据长度错误: " + length);
+        }
+        if (length == 0) {
+            return FrameInputMessage.EMPTY_INPUTS;
+        }
+        // 校验并规范化，保证转发给JSON客户端时是合法的JSON
+        return JsonCodec.decodeInputs(in.readSlice(length));
+    }
+
+    /**
+     * 读取varint（无符号，最多5字节）
+     */
+    public static int readVarInt(ByteBuf in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.isReadable()) {
+                throw new IOException("varint数据不完整");
+            }
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint过长");
+    }
+
+    /**
+     * 写入varint（无符号）
+     */
+    public static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
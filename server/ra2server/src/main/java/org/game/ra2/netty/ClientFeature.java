@@ -0,0 +1,79 @@
+package org.game.ra2.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 客户端可选功能，在匹配请求的data.features中声明，未声明的客户端保持原有协议
+ */
+public enum ClientFeature {
+    /**
+     * 空帧合并：连续的空帧不逐帧发送frameSync，合并为emptyFrames消息
+     */
+    EMPTY_FRAME_RUNS("emptyFrameRuns"),
+    /**
+     * 输入转发：其他玩家的输入到达后立即转发，帧同步只发送封帧确认，适用于支持回滚的客户端
+     */
+    INPUT_RELAY("inputRelay"),
+    /**
+     * 冗余帧：每条frameSync附带之前若干帧的非空输入，丢失帧同步的客户端无需重传即可恢复，
+     * 帧数由房间配置决定
+     */
+    REDUNDANT_FRAMES("redundantFrames");
+
+    /**
+     * 频道上已声明功能的属性键，值为按ordinal计算的位掩码
+     */
+    public static final AttributeKey<Integer> KEY = AttributeKey.valueOf("clientFeatures");
+
+    private final String wireName;
+
+    ClientFeature(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * 根据协议中的名称查找功能
+     * @return 未知功能返回null
+     */
+    public static ClientFeature fromWireName(String name) {
+        for (ClientFeature feature : values()) {
+            if (feature.wireName.equals(name)) {
+                return feature;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 记录频道声明的功能
+     * @param channel 频道
+     * @param features 功能位掩码
+     */
+    public static void set(Channel channel, int features) {
+        channel.attr(KEY).set(features);
+    }
+
+    /**
+     * 频道声明的功能位掩码，未声明时返回0
+     */
+    public static int get(Channel channel) {
+        Integer features = channel.attr(KEY).get();
+        return features != null ? features : 0;
+    }
+
+    /**
+     * 频道是否声明了该功能
+     */
+    public boolean isEnabled(Channel channel) {
+        return (get(channel) & mask()) != 0;
+    }
+}
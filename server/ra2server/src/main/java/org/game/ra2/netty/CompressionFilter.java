@@ -0,0 +1,99 @@
+package org.game.ra2.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.util.CharsetUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * permessage-deflate压缩过滤器，决定哪些下行消息需要压缩
+ * <p>
+ * 小于最小长度的消息（如空帧的frameSync）直接发送，压缩反而更慢更大；
+ * 可按消息类型开启压缩：JSON消息读取开头的type字段，二进制消息读取第一个字节，不做完整解析。
+ * 上行消息由客户端决定是否压缩，始终解压。
+ */
+public final class CompressionFilter implements WebSocketExtensionFilter, WebSocketExtensionFilterProvider {
+    private static final byte[] TYPE_PREFIX = "{\"type\":\"".getBytes(CharsetUtil.US_ASCII);
+
+    private final int minBytes;
+    private final boolean allTypes;
+    private final byte[][] textTypes; // 需要压缩的JSON消息类型，以"结尾便于比较
+    private final boolean[] binaryTypes = new boolean[256]; // 需要压缩的二进制消息类型
+
+    /**
+     * @param minBytes 压缩的最小消息长度（字节）
+     * @param types 需要压缩的消息类型，逗号分隔，*表示所有类型
+     */
+    public CompressionFilter(int minBytes, String types) {
+        this.minBytes = minBytes;
+        List<byte[]> names = new ArrayList<>();
+        boolean all = false;
+        for (String type : types.split(",")) {
+            type = type.trim();
+            if (type.equals("*")) {
+                all = true;
+            } else if (!type.isEmpty()) {
+                names.add((type + "\"").getBytes(CharsetUtil.UTF_8));
+                int code = BinaryCodec.typeOf(type);
+                if (code >= 0) {
+                    binaryTypes[code] = true;
+                }
+            }
+        }
+        this.allTypes = all;
+        this.textTypes = names.toArray(new byte[0][]);
+    }
+
+    @Override
+    public boolean mustSkip(WebSocketFrame frame) {
+        ByteBuf content = frame.content();
+        // 空消息没有类型字节可读，也没有压缩的意义（最小长度可以配置为0）
+        if (!content.isReadable() || content.readableBytes() < minBytes) {
+            return true;
+        }
+        if (allTypes) {
+            return false;
+        }
+        int index = content.readerIndex();
+        if (frame instanceof BinaryWebSocketFrame) {
+            return !binaryTypes[content.getUnsignedByte(index)];
+        }
+        if (!startsWith(content, index, TYPE_PREFIX)) {
+            return true;
+        }
+        index += TYPE_PREFIX.length;
+        for (byte[] type : textTypes) {
+            if (startsWith(content, index, type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ByteBuf content, int index, byte[] prefix) {
+        if (content.writerIndex() - index < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content.getByte(index + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public WebSocketExtensionFilter encoderFilter() {
+        return this;
+    }
+
+    @Override
+    public WebSocketExtensionFilter decoderFilter() {
+        return WebSocketExtensionFilter.NEVER_SKIP;
+    }
+}
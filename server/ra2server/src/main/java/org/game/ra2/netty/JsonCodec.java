@@ -0,0 +1,440 @@
+package org.game.ra2.netty;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.game.ra2.entity.Camp;
+import org.game.ra2.message.FrameInputBatchMessage;
+import org.game.ra2.message.FrameInputMessage;
+import org.game.ra2.message.MatchMessage;
+import org.game.ra2.message.Message;
+import org.game.ra2.message.MessageType;
+import org.game.ra2.message.SimpleMessage;
+import org.game.ra2.message.TimeSyncMessage;
+import org.game.ra2.util.ObjectMapperProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * JSON协议编解码
+ * <p>
+ * 解码直接在WebSocket帧的ByteBuf上使用流式解析器，不构建JsonNode树；
+ * 帧输入的data字段被复制为规范化的原始JSON字节，房间线程无需再做任何JSON解析。
+ */
+public final class JsonCodec {
+    private static final JsonFactory jsonFactory = ObjectMapperProvider.getInstance().getFactory();
+
+    private static final byte[] FRAME_SYNC_HEAD = ascii("{\"type\":\"frameSync\",\"frame\":");
+    private static final byte[] FRAME_SYNC_DATA = ascii(",\"data\":[");
+    private static final byte[] FRAME_SYNC_TAIL = ascii("]}");
+    private static final byte[] FRAME_SYNC_BATCH_HEAD = ascii("{\"type\":\"frameSyncBatch\",\"frames\":[");
+    private static final byte[] BATCH_FRAME_HEAD = ascii("{\"frame\":");
+    private static final byte[] FRAME_SYNC_BATCH_TAIL = ascii("]}");
+    private static final byte[] EMPTY_FRAMES_HEAD = ascii("{\"type\":\"emptyFrames\",\"from\":");
+    private static final byte[] EMPTY_FRAMES_TO = ascii(",\"to\":");
+    private static final byte[] RELAY_INPUT_HEAD = ascii("{\"type\":\"relayInput\",\"frame\":");
+    private static final byte[] FRAME_SEALED_HEAD = ascii("{\"type\":\"frameSealed\",\"frame\":");
+    private static final byte[] PREV_FROM = ascii("],\"prevFrom\":");
+    private static final byte[] PREV_HEAD = ascii(",\"prev\":[");
+    /**
+     * 预先编码的 {"campId":"N","inputs": 前缀，下标为阵营ID
+     */
+    private static final byte[][] CAMP_PREFIXES = new byte[Camp.values().length + 1][];
+
+    static {
+        for (Camp camp : Camp.values()) {
+            CAMP_PREFIXES[camp.getId()] = ascii("{\"campId\":\"" + camp.getId() + "\",\"inputs\":");
+        }
+    }
+
+    private JsonCodec() {
+    }
+
+    /**
+     * 解码客户端JSON消息
+     * @param sessionId 会话句柄
+     * @param slot 发送者在房间内的槽位下标，不在房间中时为-1
+     * @param in 消息内容（UTF-8）
+     * @return 消息对象
+     * @throws IOException 消息格式错误或类型未知
+     */
+    public static Message decode(int sessionId, int slot, ByteBuf in) throws IOException {
+        try (JsonParser parser = createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("消息必须是JSON对象");
+            }
+
+            MessageType type = null;
+            int frame = 0;
+            byte[] inputs = null;
+            String name = null;
+            String roomType = null;
+            int features = 0;
+            double clientTime = 0;
+            FrameInputBatchMessage batch = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "type":
+                        type = MessageType.fromWireName(parser.getValueAsString());
+                        if (type == null) {
+                            throw new IOException("未知消息类型: " + parser.getText());
+                        }
+                        // 不带数据的消息无需继续解析
+                        if (type == MessageType.PING || type == MessageType.READY || type == MessageType.LEAVE) {
+                            return new SimpleMessage(sessionId, slot, type);
+                        }
+                        break;
+                    case "frame":
+                        frame = parser.getValueAsInt();
+                        break;
+                    case "t0":
+                        clientTime = parser.getValueAsDouble();
+                        break;
+                    case "frames":
+                        if (token == JsonToken.START_ARRAY) {
+                            batch = decodeBatchFrames(sessionId, slot, parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                        break;
+                    case "data":
+                        if (token == JsonToken.START_ARRAY) {
+                            inputs = copyInputs(parser);
+                        } else if (token == JsonToken.START_OBJECT) {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String dataField = parser.getCurrentName();
+                                parser.nextToken();
+                                if ("name".equals(dataField)) {
+                                    name = parser.getValueAsString();
+                                } else if ("roomType".equals(dataField)) {
+                                    roomType = parser.getValueAsString();
+                                } else if ("features".equals(dataField) && parser.currentToken() == JsonToken.START_ARRAY) {
+                                    // 忽略未知功能，新客户端连接旧服务器时按旧协议处理
+                                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                        ClientFeature feature = ClientFeature.fromWireName(parser.getValueAsString());
+                                        if (feature != null) {
+                                            features |= feature.mask();
+                                        }
+                                        parser.skipChildren();
+                                    }
+                                } else {
+                                    parser.skipChildren();
+                                }
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+
+            if (type == null) {
+                throw new IOException("消息缺少type字段");
+            }
+            switch (type) {
+                case MATCH:
+                    return new MatchMessage(sessionId, slot, name, roomType, features);
+                case FRAME_INPUT:
+                    if (frame < 0) {
+                        throw new IOException("帧号错误: " + frame);
+                    }
+                    return new FrameInputMessage(sessionId, slot, frame, inputs != null ? inputs : FrameInputMessage.EMPTY_INPUTS);
+                case FRAME_INPUT_BATCH:
+                    return batch != null ? batch : new FrameInputBatchMessage(sessionId, slot, new int[0], new byte[0][], 0);
+                case TIME_SYNC:
+                    return new TimeSyncMessage(sessionId, slot, clientTime);
+                default:
+                    return new SimpleMessage(sessionId, slot, type);
+            }
+        }
+    }
+
+    /**
+     * 解析批量帧输入的frames数组：[{"frame":N,"data":[...]},...]，解析器位于数组开始处
+     */
+    private static FrameInputBatchMessage decodeBatchFrames(int sessionId, int slot, JsonParser parser) throws IOException {
+        int[] frames = new int[8];
+        byte[][] inputs = new byte[8][];
+        int count = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (count == FrameInputBatchMessage.MAX_FRAMES) {
+                throw new IOException("批量帧输入超过" + FrameInputBatchMessage.MAX_FRAMES + "帧");
+            }
+            if (count == frames.length) {
+                frames = Arrays.copyOf(frames, count * 2);
+                inputs = Arrays.copyOf(inputs, count * 2);
+            }
+            int frame = -1;
+            byte[] data = FrameInputMessage.EMPTY_INPUTS;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("frame".equals(field)) {
+                    frame = parser.getValueAsInt(-1);
+                } else if ("data".equals(field) && token == JsonToken.START_ARRAY) {
+                    data = copyInputs(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (frame < 0) {
+                throw new IOException("批量帧输入缺少frame字段");
+            }
+            frames[count] = frame;
+            inputs[count] = data;
+            count++;
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new IOException("frames必须是对象数组");
+        }
+        return new FrameInputBatchMessage(sessionId, slot, frames, inputs, count);
+    }
+
+    /**
+     * 解析独立的输入数据（二进制协议中的输入数据块），必须是JSON数组
+     * @param in 输入数据
+     * @return 规范化的输入数据
+     */
+    public static byte[] decodeInputs(ByteBuf in) throws IOException {
+        try (JsonParser parser = createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("输入数据必须是JSON数组");
+            }
+            byte[] inputs = copyInputs(parser);
+            if (parser.nextToken() != null) {
+                throw new IOException("输入数据包含多余内容");
+            }
+            return inputs;
+        }
+    }
+
+    /**
+     * 编码帧同步消息：{"type":"frameSync","frame":N,"data":[{"campId":"1","inputs":[...]},...]}
+     * @param frame 帧号
+     * @param campIds 阵营ID，与inputs按下标对应
+     * @param inputs 各阵营的输入数据
+     * @param count 阵营数量
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeFrameSync(int frame, int[] campIds, byte[][] inputs, int count) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeBytes(FRAME_SYNC_HEAD);
+        writeInt(out, frame);
+        writeFrameData(out, campIds, inputs, count);
+        return out;
+    }
+
+    /**
+     * 开始编码带冗余帧的帧同步消息：
+     * {"type":"frameSync","frame":N,"data":[...],"prevFrom":M,"prev":[{"frame":F,"data":[...]},...]}
+     * <p>
+     * prev只包含M到N-1帧中有输入的帧，每帧只包含有输入的阵营，未列出的帧和阵营为空输入。
+     * 依次调用appendPreviousFrame追加各帧，最后调用endRedundantFrameSync结束。
+     * @param frame 帧号
+     * @param campIds 阵营ID，与inputs按下标对应
+     * @param inputs 各阵营的输入数据
+     * @param count 阵营数量
+     * @param prevFrom 冗余帧覆盖的起始帧号
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf beginRedundantFrameSync(int frame, int[] campIds, byte[][] inputs, int count, int prevFrom) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeBytes(FRAME_SYNC_HEAD);
+        writeInt(out, frame);
+        out.writeBytes(FRAME_SYNC_DATA);
+        writeCampList(out, campIds, inputs, count);
+        out.writeBytes(PREV_FROM);
+        writeInt(out, prevFrom);
+        out.writeBytes(PREV_HEAD);
+        return out;
+    }
+
+    /**
+     * 向带冗余帧的帧同步消息追加一个之前的帧，格式与多帧补发中的帧相同
+     * @param out beginRedundantFrameSync返回的ByteBuf
+     * @param first 是否为第一帧
+     */
+    public static void appendPreviousFrame(ByteBuf out, boolean first, int frame, int[] campIds, byte[][] inputs, int count) {
+        appendFrameSyncBatch(out, first, frame, campIds, inputs, count);
+    }
+
+    public static void endRedundantFrameSync(ByteBuf out) {
+        out.writeBytes(FRAME_SYNC_TAIL);
+    }
+
+    /**
+     * 编码空帧合并消息：{"type":"emptyFrames","from":N,"to":M}，表示N到M帧（含）全部为空输入
+     * @param from 起始帧号
+     * @param to 结束帧号
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeEmptyFrames(int from, int to) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer(64);
+        out.writeBytes(EMPTY_FRAMES_HEAD);
+        writeInt(out, from);
+        out.writeBytes(EMPTY_FRAMES_TO);
+        writeInt(out, to);
+        out.writeByte('}');
+        return out;
+    }
+
+    /**
+     * 编码输入转发消息：{"type":"relayInput","frame":N,"data":[{"campId":"1","inputs":[...]}]}，
+     * 格式与只包含一个阵营的frameSync相同
+     * @param frame 输入所属的帧号
+     * @param campId 阵营ID
+     * @param inputs 输入数据
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeRelayInput(int frame, int campId, byte[] inputs) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeBytes(RELAY_INPUT_HEAD);
+        writeInt(out, frame);
+        out.writeBytes(FRAME_SYNC_DATA);
+        writeCampInputs(out, campId, inputs);
+        out.writeBytes(FRAME_SYNC_TAIL);
+        return out;
+    }
+
+    /**
+     * 编码封帧确认消息：{"type":"frameSealed","frame":N}，表示第N帧的输入已确定
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf encodeFrameSealed(int frame) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer(48);
+        out.writeBytes(FRAME_SEALED_HEAD);
+        writeInt(out, frame);
+        out.writeByte('}');
+        return out;
+    }
+
+    /**
+     * 开始编码多帧补发消息：{"type":"frameSyncBatch","frames":[{"frame":N,"data":[...]},...]}
+     * <p>
+     * 依次调用appendFrameSyncBatch追加各帧，最后调用endFrameSyncBatch结束。
+     * @return 池化ByteBuf，由调用方负责释放
+     */
+    public static ByteBuf beginFrameSyncBatch() {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        out.writeBytes(FRAME_SYNC_BATCH_HEAD);
+        return out;
+    }
+
+    /**
+     * 向多帧补发消息追加一帧
+     * @param out beginFrameSyncBatch返回的ByteBuf
+     * @param first 是否为第一帧
+     * @param frame 帧号
+     * @param campIds 阵营ID，与inputs按下标对应
+     * @param inputs 各阵营的输入数据
+     * @param count 阵营数量
+     */
+    public static void appendFrameSyncBatch(ByteBuf out, boolean first, int frame, int[] campIds, byte[][] inputs, int count) {
+        if (!first) {
+            out.writeByte(',');
+        }
+        out.writeBytes(BATCH_FRAME_HEAD);
+        writeInt(out, frame);
+        writeFrameData(out, campIds, inputs, count);
+    }
+
+    public static void endFrameSyncBatch(ByteBuf out) {
+        out.writeBytes(FRAME_SYNC_BATCH_TAIL);
+    }
+
+    /**
+     * 写入 ,"data":[...]} 部分
+     */
+    private static void writeFrameData(ByteBuf out, int[] campIds, byte[][] inputs, int count) {
+        out.writeBytes(FRAME_SYNC_DATA);
+        writeCampList(out, campIds, inputs, count);
+        out.writeBytes(FRAME_SYNC_TAIL);
+    }
+
+    /**
+     * 写入以逗号分隔的各阵营输入，不含外层方括号
+     */
+    private static void writeCampList(ByteBuf out, int[] campIds, byte[][] inputs, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.writeByte(',');
+            }
+            writeCampInputs(out, campIds[i], inputs[i]);
+        }
+    }
+
+    /**
+     * 写入 {"campId":"N","inputs":[...]}
+     */
+    private static void writeCampInputs(ByteBuf out, int campId, byte[] inputs) {
+        if (campId > 0 && campId < CAMP_PREFIXES.length && CAMP_PREFIXES[campId] != null) {
+            out.writeBytes(CAMP_PREFIXES[campId]);
+        } else {
+            ByteBufUtil.writeAscii(out, "{\"campId\":\"");
+            writeInt(out, campId);
+            ByteBufUtil.writeAscii(out, "\",\"inputs\":");
+        }
+        out.writeBytes(inputs);
+        out.writeByte('}');
+    }
+
+    /**
+     * 写入十进制整数，不产生临时字符串
+     */
+    static void writeInt(ByteBuf out, int value) {
+        if (value < 0) {
+            out.writeByte('-');
+            if (value == Integer.MIN_VALUE) {
+                ByteBufUtil.writeAscii(out, "2147483648");
+                return;
+            }
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.writeByte('0' + value / divisor % 10);
+            divisor /= 10;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static JsonParser createParser(ByteBuf in) throws IOException {
+        if (in.hasArray()) {
+            return jsonFactory.createParser(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes());
+        }
+        return jsonFactory.createParser((InputStream) new ByteBufInputStream(in.duplicate()));
+    }
+
+    /**
+     * 将当前数组复制为规范化的JSON字节，空数组返回共享的空输入
+     */
+    private static byte[] copyInputs(JsonParser parser) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.copyCurrentStructure(parser);
+        }
+        byte[] inputs = out.toByteArray();
+        return FrameInputMessage.isEmpty(inputs) ? FrameInputMessage.EMPTY_INPUTS : inputs;
+    }
+}
@@ -0,0 +1,93 @@
+package org.game.ra2.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接的往返时延估计
+ * <p>
+ * 服务器定期发送携带发送时间的WebSocket ping帧，客户端按协议原样回复pong，
+ * 每个样本按TCP的方式（RFC 6298）平滑：srtt = 7/8 srtt + 1/8 rtt，
+ * rttvar = 3/4 rttvar + 1/4 |srtt - rtt|。样本只由频道的IO线程更新，房间线程读取。
+ */
+public final class RttEstimator {
+    /**
+     * 频道上的时延估计，握手完成后创建
+     */
+    public static final AttributeKey<RttEstimator> KEY = AttributeKey.valueOf("rttEstimator");
+
+    private volatile long srttNanos;
+    private volatile long rttVarNanos;
+    private volatile int samples;
+    /**
+     * 最近一次ping的发送时间，0表示没有等待回复的ping。
+     * 频道迁移EventLoop时ping任务和pong处理可能短暂位于不同线程，因此使用原子变量
+     */
+    private final AtomicLong probeNanos = new AtomicLong();
+
+    /**
+     * 获取频道的时延估计
+     * @return 尚未握手完成时返回null
+     */
+    public static RttEstimator of(Channel channel) {
+        return channel.attr(KEY).get();
+    }
+
+    /**
+     * 记录发出的ping，只有原样返回该时间的pong才被接受（任意线程）
+     * @param sendNanos ping载荷中的发送时间
+     */
+    public void probeSent(long sendNanos) {
+        probeNanos.set(sendNanos);
+    }
+
+    /**
+     * 校验pong载荷是否为最近一次ping的发送时间，通过后该ping不再接受其他pong（任意线程）
+     * <p>
+     * pong的载荷由客户端控制，伪造或很久以前的时间会被拒绝；晚于下一次ping到达的pong同样被丢弃。
+     * @param sendNanos pong载荷中的时间
+     * @return 是否接受
+     */
+    public boolean acceptPong(long sendNanos) {
+        return sendNanos != 0 && probeNanos.compareAndSet(sendNanos, 0);
+    }
+
+    /**
+     * 记录一个往返时延样本（IO线程调用）
+     * @param rttNanos 往返时延（纳秒）
+     */
+    public void update(long rttNanos) {
+        if (samples == 0) {
+            srttNanos = rttNanos;
+            rttVarNanos = rttNanos / 2;
+        } else {
+            long srtt = srttNanos;
+            rttVarNanos += (Math.abs(srtt - rttNanos) - rttVarNanos) / 4;
+            srttNanos = srtt + (rttNanos - srtt) / 8;
+        }
+        samples++;
+    }
+
+    /**
+     * 平滑后的往返时延（纳秒）
+     */
+    public long getSrttNanos() {
+        return srttNanos;
+    }
+
+    /**
+     * 往返时延的平均偏差，即抖动（纳秒）
+     */
+    public long getRttVarNanos() {
+        return rttVarNanos;
+    }
+
+    /**
+     * 已记录的样本数，为0时时延未知
+     */
+    public int getSamples() {
+        return samples;
+    }
+}
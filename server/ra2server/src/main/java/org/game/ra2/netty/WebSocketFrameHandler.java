@@ -1,26 +1,47 @@
 package org.game.ra2.netty;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.game.ra2.message.MatchMessage;
+import org.game.ra2.message.Message;
+import org.game.ra2.message.MessageType;
+import org.game.ra2.message.TimeSyncMessage;
 import org.game.ra2.service.MatchService;
+import org.game.ra2.service.RoomBinding;
 import org.game.ra2.service.RoomService;
-import org.game.ra2.service.RoomServiceManager;
+import org.game.ra2.service.SessionRegistry;
 import org.game.ra2.service.WebSocketSessionManager;
 import org.game.ra2.util.ObjectMapperProvider;
+import org.game.ra2.util.ServerClock;
+import org.game.ra2.util.ServerConfig;
 
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-public class WebSocketFrameHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
     private static final Logger logger = LogManager.getLogger(WebSocketFrameHandler.class);
+    /**
+     * 测量往返时延的ping帧发送间隔（毫秒），0表示不测量
+     */
+    private static final int RTT_PROBE_INTERVAL_MS = ServerConfig.getInt("ra2.netty.rttProbeIntervalMs", 1000);
 
     private final MatchService matchService;
+    private ScheduledFuture<?> rttProbe; // 定期发送ping帧的任务，只在频道当前所在的IO线程中访问
 
     public WebSocketFrameHandler(MatchService matchService) {
         this.matchService = matchService;
@@ -28,79 +49,216 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<TextWebSo
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
-        WebSocketSessionManager.getInstance().addChannel(ctx.channel());
-        logger.info("新的连接加入: {}", ctx.channel().id().asLongText());
+        int sessionId = WebSocketSessionManager.getInstance().addChannel(ctx.channel());
+        logger.info("新的连接加入: {}, 会话: {}", ctx.channel().id().asShortText(), sessionId);
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
-        String channelId = ctx.channel().id().asLongText();
+        int sessionId = SessionRegistry.sessionId(ctx.channel());
+        if (rttProbe != null) {
+            rttProbe.cancel(false);
+            rttProbe = null;
+        }
 
-        logger.info("连接断开: {}", channelId);
+        logger.info("连接断开: {}", sessionId);
         
         // 处理断线逻辑
-        String roomId = WebSocketSessionManager.getInstance().getRoomIdByChannel(channelId);
-        if (roomId != null) {
+        RoomBinding binding = RoomBinding.of(ctx.channel());
+        if (binding != null) {
             // 如果在房间中，则交给房间线程处理
-            logger.info("房间中的玩家断开: {}", channelId);
-            RoomService roomService = RoomServiceManager.getInstance().getRoomService(roomId);
-            if (roomService != null) {
-                roomService.handleDisconnect(channelId);
-            }
-            WebSocketSessionManager.getInstance().removeChannelRoomMapping(channelId);
+            logger.info("房间中的玩家断开: {}", sessionId);
+            binding.getRoomService().handleDisconnect(sessionId, binding.getSlot());
+            RoomBinding.unbind(ctx.channel(), binding.getRoomService());
         } else {
             // 如果不在房间中，交给匹配线程处理
-            logger.info("匹配中的玩家断开: {}", channelId);
-            matchService.handleDisconnect(channelId);
+            logger.info("匹配中的玩家断开: {}", sessionId);
+            matchService.handleDisconnect(sessionId);
         }
 
-        WebSocketSessionManager.getInstance().removeChannel(channelId);
+        WebSocketSessionManager.getInstance().removeChannel(sessionId);
     }
 
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
-            logger.info("WebSocket握手完成");
+            // 记录协商的线路协议
+            String subprotocol = ((WebSocketServerProtocolHandler.HandshakeComplete) evt).selectedSubprotocol();
+            WireProtocol protocol = WireProtocol.fromSubprotocol(subprotocol);
+            ctx.channel().attr(WireProtocol.KEY).set(protocol);
+            logger.info("WebSocket握手完成, 协议: {}", protocol);
+            startRttProbe(ctx);
         } else {
             super.userEventTriggered(ctx, evt);
         }
     }
 
+    /**
+     * 频道重新注册时（EventLoop模式下房间把频道迁移到房间所在的EventLoop），
+     * 握手时调度在原EventLoop上的ping任务改到新的EventLoop上执行
+     */
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame msg) throws Exception {
-        String channelId = ctx.channel().id().asLongText();
-        String request = msg.text();
-        
+    public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
+        RttEstimator estimator = RttEstimator.of(ctx.channel());
+        if (rttProbe != null && estimator != null) {
+            rttProbe.cancel(false);
+            scheduleRttProbe(ctx, estimator);
+        }
+        super.channelRegistered(ctx);
+    }
+
+    /**
+     * 创建频道的时延估计并开始定期测量
+     */
+    private void startRttProbe(ChannelHandlerContext ctx) {
+        RttEstimator estimator = new RttEstimator();
+        ctx.channel().attr(RttEstimator.KEY).set(estimator);
+        if (RTT_PROBE_INTERVAL_MS > 0) {
+            scheduleRttProbe(ctx, estimator);
+        }
+    }
+
+    /**
+     * 在频道当前的EventLoop上定期发送载荷为发送时间（System.nanoTime，8字节）的ping帧，客户端按WebSocket协议原样回复pong
+     */
+    private void scheduleRttProbe(ChannelHandlerContext ctx, RttEstimator estimator) {
+        rttProbe = ctx.executor().scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            estimator.probeSent(now);
+            ByteBuf payload = ctx.alloc().buffer(8).writeLong(now);
+            ctx.writeAndFlush(new PingWebSocketFrame(payload)).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        }, RTT_PROBE_INTERVAL_MS, RTT_PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 根据pong帧中原样返回的发送时间记录往返时延，载荷不是最近一次ping发送时间的pong
+     * （客户端主动发送的、伪造的或过期的）忽略
+     */
+    private void recordRtt(ChannelHandlerContext ctx, ByteBuf content) {
+        RttEstimator estimator = RttEstimator.of(ctx.channel());
+        if (estimator == null || content.readableBytes() != Long.BYTES) {
+            return;
+        }
+        long sendNanos = content.getLong(content.readerIndex());
+        if (estimator.acceptPong(sendNanos)) {
+            estimator.update(System.nanoTime() - sendNanos);
+        }
+    }
+
+    /**
+     * 回复时间同步请求（NTP方式）：客户端发送时间t0，服务器收到时间t1、发送时间t2，
+     * 以及所在房间第0帧的截止时间和帧间隔，客户端据此估计时钟偏差并计算各帧的截止时间
+     */
+    private void replyTimeSync(ChannelHandlerContext ctx, RoomBinding binding, TimeSyncMessage message, boolean binary) throws Exception {
+        long receiveTime = ServerClock.nowMicros();
+        RoomService roomService = binding != null ? binding.getRoomService() : null;
+        long frameZero = roomService != null ? roomService.getFrameZeroMicros() : RoomService.NO_FRAME_ZERO;
+        Object reply;
+        if (binary) {
+            reply = new BinaryWebSocketFrame(BinaryCodec.encodeTimeSync(message.getClientTime(), receiveTime,
+                    ServerClock.nowMicros(), frameZero != RoomService.NO_FRAME_ZERO, frameZero,
+                    frameZero != RoomService.NO_FRAME_ZERO ? roomService.getTickIntervalMicros() : 0));
+        } else {
+            ObjectNode response = ObjectMapperProvider.getInstance().createObjectNode();
+            response.put("type", "timeSync");
+            response.put("t0", message.getClientTime());
+            response.put("t1", receiveTime);
+            if (frameZero != RoomService.NO_FRAME_ZERO) {
+                response.put("frameZero", frameZero);
+                response.put("tickInterval", roomService.getTickIntervalMicros());
+            }
+            response.put("t2", ServerClock.nowMicros());
+            reply = new TextWebSocketFrame(ObjectMapperProvider.getInstance().writeValueAsString(response));
+        }
+        ctx.channel().writeAndFlush(reply).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 不可写时房间暂停向该频道发送帧同步，恢复后合并补发，见Room
+        if (logger.isDebugEnabled()) {
+            logger.debug("频道可写状态变化 - 会话: {}, 可写: {}, 写积压: {}B", SessionRegistry.sessionId(ctx.channel()),
+                    ctx.channel().isWritable(), WebSocketSessionManager.getInstance().getQueuedBytes(ctx.channel()));
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        // 包括以voidPromise广播时的写失败，连接已关闭时的写失败不需要报错
+        if (cause instanceof ClosedChannelException) {
+            logger.debug("连接已关闭，写入失败 - 会话: {}", SessionRegistry.sessionId(ctx.channel()));
+        } else {
+            logger.error("连接发生异常，关闭连接 - 会话: {}", SessionRegistry.sessionId(ctx.channel()), cause);
+        }
+        ctx.close();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) throws Exception {
+        int sessionId = SessionRegistry.sessionId(ctx.channel());
+        // 一次属性读取即可得到房间和槽位
+        RoomBinding binding = RoomBinding.of(ctx.channel());
+        int slot = binding != null ? binding.getSlot() : -1;
+        boolean binary = msg instanceof BinaryWebSocketFrame;
+
+        if (msg instanceof PongWebSocketFrame) {
+            recordRtt(ctx, msg.content());
+            return;
+        }
+        if (!binary && !(msg instanceof TextWebSocketFrame)) {
+            logger.warn("不支持的WebSocket帧类型: {}", msg.getClass().getSimpleName());
+            return;
+        }
+
+        Message message;
         try {
-            JsonNode jsonNode = ObjectMapperProvider.getInstance().readTree(request);
-            String type = jsonNode.get("type").asText();
+            // 直接在帧的ByteBuf上解码为类型化消息
+            message = binary ? BinaryCodec.decode(sessionId, slot, msg.content())
+                    : JsonCodec.decode(sessionId, slot, msg.content());
+        } catch (Exception e) {
+            logger.error("解析消息时发生错误 - 会话: {}, 消息: {}", sessionId,
+                    binary ? "二进制" : msg.content().toString(StandardCharsets.UTF_8), e);
+            return;
+        }
 
-            if (type.equals("ping")) { // 处理ping消息，返回pong
+        try {
+            dispatch(ctx, binding, message, binary);
+        } catch (Exception e) {
+            logger.error("处理消息时发生错误: {}", message, e);
+        }
+    }
+
+    /**
+     * 根据消息类型分发消息
+     * @param binary 消息是否来自二进制帧，ping按同样的协议回复
+     */
+    private void dispatch(ChannelHandlerContext ctx, RoomBinding binding, Message message, boolean binary) throws Exception {
+        int sessionId = message.getSessionId();
+
+        if (message.getType() == MessageType.PING) { // 处理ping消息，返回pong
+            Object pong;
+            if (binary) {
+                pong = new BinaryWebSocketFrame(BinaryCodec.encodePong());
+            } else {
                 Map<String, String> pongResponse = new HashMap<>();
                 pongResponse.put("type", "pong");
-                String jsonResponse = ObjectMapperProvider.getInstance().writeValueAsString(pongResponse);
-                ctx.channel().writeAndFlush(new TextWebSocketFrame(jsonResponse)).addListener((ChannelFutureListener) future -> {
-                    if (!future.isSuccess()) {
-                        logger.error("发送pong消息失败 - channelId: {}", channelId, future.cause());
-                    }
-                });
-            } else if (type.equals("match")) {// 添加到匹配队列
-                matchService.addMessage(channelId, jsonNode);
-            } else {// 其他消息根据房间信息转发
-                String roomId = WebSocketSessionManager.getInstance().getRoomIdByChannel(channelId);
-                if (roomId != null) {
-                    RoomService roomService = RoomServiceManager.getInstance().getRoomService(roomId);
-                    if (roomService != null) {
-                        roomService.addMessage(channelId, jsonNode);
-                    } else {
-                        logger.error("房间不存在: {}", roomId);
-                    }
-                } else {
-                    logger.error("玩家未加入房间: {}", channelId);
-                }
+                pong = new TextWebSocketFrame(ObjectMapperProvider.getInstance().writeValueAsString(pongResponse));
+            }
+            // 共享监听器，发送失败时交给exceptionCaught处理
+            ctx.channel().writeAndFlush(pong).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        } else if (message.getType() == MessageType.TIME_SYNC) { // 时间同步在IO线程中直接回复，不经过房间
+            replyTimeSync(ctx, binding, (TimeSyncMessage) message, binary);
+        } else if (message.getType() == MessageType.MATCH) {// 添加到匹配队列
+            // 客户端声明的可选功能记录在频道上，房间按频道决定下行消息格式
+            ClientFeature.set(ctx.channel(), ((MatchMessage) message).getFeatures());
+            matchService.addMessage((MatchMessage) message);
+        } else {// 其他消息根据房间绑定转发
+            if (binding != null) {
+                binding.getRoomService().addMessage(message);
+            } else {
+                logger.error("玩家未加入房间: {}", sessionId);
             }
-        } catch (Exception e) {
-            logger.error("处理消息时发生错误: {}", request, e);
         }
     }
 }
\ No newline at end of file
@@ -2,10 +2,20 @@ package org.game.ra2.netty;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import org.game.ra2.service.MatchService;
+import org.game.ra2.service.RoomServiceManager;
+import org.game.ra2.util.ServerConfig;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -15,6 +25,25 @@ import org.apache.logging.log4j.Logger;
 public class WebSocketServer {
     private static final Logger logger = LogManager.getLogger(WebSocketServer.class);
 
+    /**
+     * 传输方式：auto（Linux上优先epoll）、epoll、nio
+     */
+    private static final String TRANSPORT = ServerConfig.getString("ra2.netty.transport", "auto");
+    private static final int BOSS_THREADS = ServerConfig.getInt("ra2.netty.bossThreads", 1);
+    /**
+     * worker线程数，0表示使用Netty默认值（CPU核数*2）
+     */
+    private static final int WORKER_THREADS = ServerConfig.getInt("ra2.netty.workerThreads", 0);
+    private static final boolean TCP_NODELAY = ServerConfig.getBoolean("ra2.netty.tcpNoDelay", true);
+    /**
+     * 发送/接收缓冲区大小，0表示使用系统默认值
+     */
+    private static final int SO_SNDBUF = ServerConfig.getInt("ra2.netty.soSndBuf", 0);
+    private static final int SO_RCVBUF = ServerConfig.getInt("ra2.netty.soRcvBuf", 0);
+    private static final int WRITE_BUFFER_LOW = ServerConfig.getInt("ra2.netty.writeBufferLowWaterMark", 32 * 1024);
+    private static final int WRITE_BUFFER_HIGH = ServerConfig.getInt("ra2.netty.writeBufferHighWaterMark", 64 * 1024);
+    private static final boolean EPOLL_EDGE_TRIGGERED = ServerConfig.getBoolean("ra2.netty.epollEdgeTriggered", true);
+
     private final int port;
     private final MatchService matchService;
 
@@ -24,21 +53,55 @@ public class WebSocketServer {
     }
 
     public void start() throws InterruptedException {
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        boolean useEpoll = useEpoll();
+        EventLoopGroup bossGroup = useEpoll ? new EpollEventLoopGroup(BOSS_THREADS) : new NioEventLoopGroup(BOSS_THREADS);
+        EventLoopGroup workerGroup = useEpoll ? new EpollEventLoopGroup(WORKER_THREADS) : new NioEventLoopGroup(WORKER_THREADS);
+        Class<? extends ServerChannel> channelClass = useEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+        // EventLoop模式下房间循环运行在worker的EventLoop上
+        RoomServiceManager.getInstance().setWorkerGroup(workerGroup);
 
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(channelClass)
+                    .childOption(ChannelOption.TCP_NODELAY, TCP_NODELAY)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(WRITE_BUFFER_LOW, WRITE_BUFFER_HIGH))
                     .childHandler(new WebSocketServerInitializer(matchService));
+            if (SO_SNDBUF > 0) {
+                bootstrap.childOption(ChannelOption.SO_SNDBUF, SO_SNDBUF);
+            }
+            if (SO_RCVBUF > 0) {
+                bootstrap.childOption(ChannelOption.SO_RCVBUF, SO_RCVBUF);
+            }
+            if (useEpoll) {
+                EpollMode mode = EPOLL_EDGE_TRIGGERED ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+                bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                        .childOption(EpollChannelOption.EPOLL_MODE, mode);
+            }
 
             ChannelFuture future = bootstrap.bind(port).sync();
-            logger.info("WebSocket 服务器启动成功，端口：{}", port);
+            logger.info("WebSocket 服务器启动成功，端口：{}，传输方式：{}，worker线程数：{}",
+                    port, useEpoll ? "epoll" : "nio", WORKER_THREADS > 0 ? WORKER_THREADS : "默认");
             future.channel().closeFuture().sync();
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 是否使用epoll传输，不可用时回退到NIO
+     */
+    private static boolean useEpoll() {
+        if ("nio".equalsIgnoreCase(TRANSPORT)) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        if ("epoll".equalsIgnoreCase(TRANSPORT)) {
+            logger.warn("epoll不可用，回退到NIO传输", Epoll.unavailabilityCause());
+        }
+        return false;
+    }
+}
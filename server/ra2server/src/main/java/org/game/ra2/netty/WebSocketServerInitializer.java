@@ -4,11 +4,41 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import org.game.ra2.service.MatchService;
+import org.game.ra2.util.ServerConfig;
 
 public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel> {
+    /**
+     * 读取过程中最多合并多少次flush，0表示不合并
+     */
+    private static final int FLUSH_CONSOLIDATE_AFTER = ServerConfig.getInt("ra2.netty.flushConsolidateAfter", 256);
+    /**
+     * 是否支持permessage-deflate压缩，客户端在握手时声明支持后才启用
+     */
+    private static final boolean COMPRESSION = ServerConfig.getBoolean("ra2.netty.compression", true);
+    private static final int COMPRESSION_LEVEL = Math.max(1, Math.min(9, ServerConfig.getInt("ra2.netty.compressionLevel", 6)));
+    /**
+     * 下行消息压缩的最小长度（字节）和消息类型
+     */
+    private static final CompressionFilter COMPRESSION_FILTER = new CompressionFilter(
+            ServerConfig.getInt("ra2.netty.compressionMinBytes", 256),
+            ServerConfig.getString("ra2.netty.compressionTypes", "*"));
+
+    /**
+     * WebSocket协议配置，pong帧交给WebSocketFrameHandler测量往返时延
+     */
+    private static final WebSocketServerProtocolConfig PROTOCOL_CONFIG = WebSocketServerProtocolConfig.newBuilder()
+            .websocketPath("/ws")
+            .subprotocols(WireProtocol.SUBPROTOCOLS)
+            .allowExtensions(COMPRESSION)
+            .dropPongFrames(false)
+            .build();
 
     private final MatchService matchService;
 
@@ -18,11 +48,22 @@ public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel
 
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
+        if (FLUSH_CONSOLIDATE_AFTER > 0) {
+            // 放在管道最前面，读取过程中产生的flush（如pong）合并到读取结束时执行
+            ch.pipeline().addLast(new FlushConsolidationHandler(FLUSH_CONSOLIDATE_AFTER));
+        }
         ch.pipeline()
                 .addLast(new HttpServerCodec())
                 .addLast(new ChunkedWriteHandler())
-                .addLast(new HttpObjectAggregator(65536))
-                .addLast(new WebSocketServerProtocolHandler("/ws"))
+                .addLast(new HttpObjectAggregator(65536));
+        if (COMPRESSION) {
+            // 默认保留压缩上下文，同一连接的后续消息可以引用之前消息中的重复内容；
+            // 客户端要求不保留上下文（server_no_context_takeover）时也接受，以节省内存
+            ch.pipeline().addLast(new WebSocketServerExtensionHandler(new PerMessageDeflateServerExtensionHandshaker(
+                    COMPRESSION_LEVEL, false, PerMessageDeflateServerExtensionHandshaker.MAX_WINDOW_SIZE, true, false, COMPRESSION_FILTER)));
+        }
+        ch.pipeline()
+                .addLast(new WebSocketServerProtocolHandler(PROTOCOL_CONFIG))
                 .addLast(new WebSocketFrameHandler(matchService));
     }
 }
\ No newline at end of file
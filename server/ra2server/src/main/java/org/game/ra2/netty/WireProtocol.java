@@ -0,0 +1,60 @@
+package org.game.ra2.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 线路协议类型，通过WebSocket子协议协商
+ */
+public enum WireProtocol {
+    /**
+     * JSON文本协议（默认，兼容旧客户端）
+     */
+    JSON("ra2.json"),
+    /**
+     * 二进制协议，帧同步相关消息使用BinaryWebSocketFrame传输
+     */
+    BINARY("ra2.bin");
+
+    /**
+     * 频道上协商结果的属性键
+     */
+    public static final AttributeKey<WireProtocol> KEY = AttributeKey.valueOf("wireProtocol");
+
+    /**
+     * 服务器支持的子协议列表，按优先级排列
+     */
+    public static final String SUBPROTOCOLS = BINARY.subprotocol + "," + JSON.subprotocol;
+
+    private final String subprotocol;
+
+    WireProtocol(String subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /**
+     * 根据握手选中的子协议获取协议类型，未协商时使用JSON
+     * @param subprotocol 子协议名称，可能为null
+     * @return 协议类型
+     */
+    public static WireProtocol fromSubprotocol(String subprotocol) {
+        if (BINARY.subprotocol.equals(subprotocol)) {
+            return BINARY;
+        }
+        return JSON;
+    }
+
+    /**
+     * 获取频道使用的协议
+     * @param channel 频道
+     * @return 协议类型
+     */
+    public static WireProtocol of(Channel channel) {
+        WireProtocol protocol = channel.attr(KEY).get();
+        return protocol != null ? protocol : JSON;
+    }
+}
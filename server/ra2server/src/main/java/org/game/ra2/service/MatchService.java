@@ -1,7 +1,7 @@
 package org.game.ra2.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import org.game.ra2.message.MatchMessage;
 import org.game.ra2.util.ObjectMapperProvider;
 import org.game.ra2.entity.RoomType;
 import org.apache.logging.log4j.LogManager;
@@ -27,16 +27,16 @@ public class MatchService {
 
     // 添加PlayerInfo内部类
     public static class PlayerInfo {
-        private String channelId;
+        private int sessionId;
         private String name;
 
-        public PlayerInfo(String channelId, String name) {
-            this.channelId = channelId;
+        public PlayerInfo(int sessionId, String name) {
+            this.sessionId = sessionId;
             this.name = name;
         }
 
-        public String getChannelId() {
-            return channelId;
+        public int getSessionId() {
+            return sessionId;
         }
 
         public String getName() {
@@ -45,7 +45,7 @@ public class MatchService {
     }
 
     private static MatchService instance = new MatchService();
-    private final LinkedBlockingQueue<Message> messageQueue = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<MatchMessage> messageQueue = new LinkedBlockingQueue<>();
     // 为每种房间类型维护一个等待队列
     private final Map<RoomType, Queue<PlayerInfo>> waitingPlayersByType = new ConcurrentHashMap<>();
 
@@ -67,13 +67,11 @@ public class MatchService {
 
     /**
      * 添加匹配请求到队列
-     * @param channelId
-     * @param data
+     * @param message
      */
-    public void addMessage(String channelId, JsonNode data) {
+    public void addMessage(MatchMessage message) {
         try {
-            logger.info("添加匹配请求到队列: {}, 数据: {}", channelId, data.toString());
-            Message message = new Message(channelId, data);
+            logger.info("添加匹配请求到队列: {}", message);
             messageQueue.put(message);
         } catch (InterruptedException e) {
             logger.error("添加匹配请求时被中断", e);
@@ -107,23 +105,12 @@ public class MatchService {
 
     private void processMessage() {
         // 一次性获取所有消息
-        List<Message> messages = new ArrayList<>();
+        List<MatchMessage> messages = new ArrayList<>();
         messageQueue.drainTo(messages);
 
-        // 遍历所有消息，根据消息类型处理
-        for (Message message : messages) {
-            JsonNode data = message.getData();
-            String type = data.has("type") ? data.get("type").asText() : "";
-
-            switch (type) {
-                case "match":
-                    handleMatchMessage(message);
-                    break;
-                default:
-                    // 处理其他类型的消息
-                    logger.warn("未知消息类型: {}, message:{}", type, message);
-                    break;
-            }
+        // 遍历所有消息
+        for (MatchMessage message : messages) {
+            handleMatchMessage(message);
         }
 
         // 处理匹配逻辑
@@ -134,13 +121,12 @@ public class MatchService {
      * 处理匹配消息
      * @param message
      */
-    private void handleMatchMessage(Message message) {
+    private void handleMatchMessage(MatchMessage message) {
         // 将消息数据转换为Player并保存到等待玩家列表中
-        JsonNode data = message.getData().get("data");
-        String name = data.has("name") ? data.get("name").asText() : "Unknown";
+        String name = message.getName() != null ? message.getName() : "Unknown";
         
         // 获取房间类型，默认为双人
-        String roomTypeStr = data.has("roomType") ? data.get("roomType").asText() : "DUO";
+        String roomTypeStr = message.getRoomType() != null ? message.getRoomType() : "DUO";
         RoomType roomType;
         try {
             roomType = RoomType.valueOf(roomTypeStr.toUpperCase());
@@ -149,39 +135,39 @@ public class MatchService {
             roomType = RoomType.DUO;
         }
 
-        // 检查channelId是否已经在匹配中
-        if (isMatching(message.getChannelId())) {
-            logger.info("玩家已存在匹配中: {}", message.getChannelId());
+        // 检查会话是否已经在匹配中
+        if (isMatching(message.getSessionId())) {
+            logger.info("玩家已存在匹配中: {}", message.getSessionId());
             return;
         }
 
-        // 检查channelId已经在房间中
-        if (WebSocketSessionManager.getInstance().isChannelInRoom(message.getChannelId())) {
-            logger.info("玩家已加入房间: {}", message.getChannelId());
+        // 检查会话已经在房间中
+        if (WebSocketSessionManager.getInstance().isChannelInRoom(message.getSessionId())) {
+            logger.info("玩家已加入房间: {}", message.getSessionId());
             return;
         }
 
-        PlayerInfo player = new PlayerInfo(message.getChannelId(), name); // 创建内部PlayerInfo对象
+        PlayerInfo player = new PlayerInfo(message.getSessionId(), name); // 创建内部PlayerInfo对象
         Queue<PlayerInfo> queue = waitingPlayersByType.get(roomType);
         queue.add(player);
-        logger.info("添加玩家到 {} 等待列表: {}", roomType, message.getChannelId());
+        logger.info("添加玩家到 {} 等待列表: {}", roomType, message.getSessionId());
 
         try {
             Map<String, String> response = new HashMap<>();
             response.put("type", "matched");
             String jsonResponse = ObjectMapperProvider.getInstance().writeValueAsString(response);
 
-            WebSocketSessionManager.getInstance().sendMessage(message.getChannelId(), jsonResponse);
+            WebSocketSessionManager.getInstance().sendMessage(message.getSessionId(), jsonResponse);
         } catch (JsonProcessingException e) {
             logger.error("处理匹配消息时序列化响应失败", e);
         }
 
     }
 
-    private boolean isMatching(String channelId) {
+    private boolean isMatching(int sessionId) {
         // 检查所有队列中是否已经存在该玩家
         for (Queue<PlayerInfo> queue : waitingPlayersByType.values()) {
-            if (queue.stream().anyMatch(player -> player.getChannelId().equals(channelId))) {
+            if (queue.stream().anyMatch(player -> player.getSessionId() == sessionId)) {
                 return true;
             }
         }
@@ -198,15 +184,14 @@ public class MatchService {
             
             // 当队列中的玩家数量满足房间要求时创建房间
             while (queue.size() >= roomType.getMaxPlayers()) {
-                // 创建RoomService实例来创建房间
-                RoomService roomService = RoomServiceManager.getInstance().createRoomService();
-                
                 // 根据房间类型创建相应数量的玩家
                 PlayerInfo[] players = new PlayerInfo[roomType.getMaxPlayers()];
                 for (int i = 0; i < roomType.getMaxPlayers(); i++) {
                     players[i] = queue.poll();
                 }
-                
+
+                // 创建RoomService实例来创建房间
+                RoomService roomService = RoomServiceManager.getInstance().createRoomService(roomType, players);
                 roomService.createRoom(players);
             }
         }
@@ -214,18 +199,18 @@ public class MatchService {
 
     /**
      * 处理断线逻辑
-     * @param channelId
+     * @param sessionId
      */
-    public void handleDisconnect(String channelId) {
+    public void handleDisconnect(int sessionId) {
         // 在匹配阶段断线，从匹配队列中移除
         // 这里可以实现更复杂的逻辑
-        logger.info("处理用户断线: {}", channelId);
+        logger.info("处理用户断线: {}", sessionId);
         
         // 从所有等待队列中移除断线的玩家
         for (Queue<PlayerInfo> queue : waitingPlayersByType.values()) {
             PlayerInfo playerToRemove = null;
             for (PlayerInfo player : queue) {
-                if (player.getChannelId().equals(channelId)) {
+                if (player.getSessionId() == sessionId) {
                     playerToRemove = player;
                     break;
                 }
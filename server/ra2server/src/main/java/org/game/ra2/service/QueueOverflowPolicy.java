@@ -0,0 +1,29 @@
+package org.game.ra2.service;
+
+/**
+ * 房间消息队列溢出策略
+ */
+public enum QueueOverflowPolicy {
+    /**
+     * 丢弃新消息
+     */
+    DROP,
+    /**
+     * 丢弃新消息并断开发送者的连接
+     */
+    DISCONNECT;
+
+    /**
+     * 解析配置值，无法识别时使用DROP
+     * @param value 配置值
+     * @return 溢出策略
+     */
+    public static QueueOverflowPolicy fromConfig(String value) {
+        for (QueueOverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        return DROP;
+    }
+}
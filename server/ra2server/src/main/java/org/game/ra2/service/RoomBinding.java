@@ -0,0 +1,57 @@
+package org.game.ra2.service;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 频道与房间的绑定关系，作为频道属性保存
+ * <p>
+ * 对象不可变，由匹配线程在创建房间时发布，IO线程读取。Netty的频道属性基于原子引用，
+ * 写入和读取具有volatile语义，读到绑定的IO线程一定能看到完整构造的RoomService。
+ */
+public final class RoomBinding {
+    /**
+     * 频道上房间绑定的属性键
+     */
+    public static final AttributeKey<RoomBinding> KEY = AttributeKey.valueOf("roomBinding");
+
+    private final RoomService roomService;
+    private final int slot;
+
+    public RoomBinding(RoomService roomService, int slot) {
+        this.roomService = roomService;
+        this.slot = slot;
+    }
+
+    public RoomService getRoomService() {
+        return roomService;
+    }
+
+    /**
+     * 玩家在房间内的槽位下标
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * 获取频道的房间绑定
+     * @param channel 频道
+     * @return 绑定关系，不在房间中时返回null
+     */
+    public static RoomBinding of(Channel channel) {
+        return channel.attr(KEY).get();
+    }
+
+    /**
+     * 解除频道与指定房间的绑定，频道已绑定到其他房间时不做处理
+     * @param channel 频道
+     * @param roomService 房间服务
+     */
+    public static void unbind(Channel channel, RoomService roomService) {
+        RoomBinding binding = channel.attr(KEY).get();
+        if (binding != null && binding.roomService == roomService) {
+            channel.attr(KEY).compareAndSet(binding, null);
+        }
+    }
+}
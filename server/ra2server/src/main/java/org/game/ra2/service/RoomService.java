@@ -1,62 +1,183 @@
 package org.game.ra2.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
 import org.game.ra2.util.ObjectMapperProvider;
 import org.game.ra2.entity.Camp;
 import org.game.ra2.entity.Player;
+import org.game.ra2.entity.RoomType;
+import org.game.ra2.message.FrameInputBatchMessage;
+import org.game.ra2.message.FrameInputMessage;
+import org.game.ra2.message.Message;
+import org.game.ra2.message.MessageType;
 import org.game.ra2.thread.Room;
 import org.game.ra2.thread.RoomThread;
+import org.game.ra2.thread.TickStats;
+import org.game.ra2.util.MpscArrayQueue;
+import org.game.ra2.util.ServerClock;
+import org.game.ra2.util.ServerConfig;
+import org.game.ra2.util.WheelTimer;
+import io.netty.util.Timeout;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * 房间服务类
  */
 public class RoomService {
     private static final Logger logger = LogManager.getLogger(RoomService.class);
+    /**
+     * 落后时最多连续追赶的帧数，超出部分直接跳过
+     */
+    private static final int MAX_CATCH_UP_TICKS = Math.max(1, ServerConfig.getInt("ra2.room.maxCatchUpTicks", 3));
+    /**
+     * 每个玩家最多积压的消息数，房间消息队列容量为该值乘以最大玩家数
+     */
+    private static final int MAX_PENDING_PER_PLAYER = Math.max(1, ServerConfig.getInt("ra2.room.maxPendingPerPlayer", 128));
+    /**
+     * 玩家积压的消息超过上限时的处理方式
+     */
+    private static final QueueOverflowPolicy OVERFLOW_POLICY =
+            QueueOverflowPolicy.fromConfig(ServerConfig.getString("ra2.room.queueOverflowPolicy", "drop"));
+    /**
+     * 当前帧所有在线玩家的输入到齐时是否提前推进，不等截止时间
+     */
+    private static final boolean EARLY_TICK = ServerConfig.getBoolean("ra2.room.earlyTick", true);
+    /**
+     * 提前推进时相邻两帧的最小间隔
+     */
+    private static final long MIN_TICK_GAP = TimeUnit.MILLISECONDS.toNanos(ServerConfig.getInt("ra2.room.minTickGapMs", 10));
+    /**
+     * 游戏开始前第0帧的截止时间未知
+     */
+    public static final long NO_FRAME_ZERO = Long.MIN_VALUE;
     
-    private final RoomThread roomThread;
+    // 所属房间线程，迁移时由原线程在两帧之间修改
+    private volatile RoomThread roomThread;
     private final ObjectMapper objectMapper = ObjectMapperProvider.getInstance();
-    private final LinkedBlockingQueue<Message> messageQueue = new LinkedBlockingQueue<>();
+    private final MpscArrayQueue<Message> messageQueue;
+    private final AtomicIntegerArray pendingBySlot = new AtomicIntegerArray(Camp.values().length); // 每个槽位积压的消息数
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final Consumer<Message> messageHandler = this::handleMessage;
 
     private final String roomId;
-    // 房间管理数据结构
-    private Room room;
-    private boolean destroyed = false; // 标记房间是否已被销毁
+    private final RoomType roomType;
+    private final long tickInterval; // 帧间隔（纳秒）
+    private long nextTickTime; // 下一帧的绝对截止时间（System.nanoTime），只在房间线程中访问
+    private boolean tickScheduled = false;
+    private long lastTickTime; // 上一帧的执行时间，只在房间线程中访问
+    private volatile int currentFrame; // 房间的当前帧，由房间线程每帧发布，IO线程据此判断输入是否可能凑齐当前帧
+    private volatile long frameZeroMicros = NO_FRAME_ZERO; // 第0帧的截止时间（服务器时钟，微秒），供IO线程回复时间同步
+    private long busyTime; // 当前统计窗口内的处理耗时（纳秒），只在房间线程中访问
+    private volatile double load; // 平滑后的负载（占用房间线程时间的比例）
+    // 房间管理数据结构，由匹配线程创建后发布给房间线程
+    private volatile Room room;
+    private volatile boolean inputRelay; // 有玩家声明了输入转发，帧输入到达后立即唤醒房间线程转发
+    private volatile boolean destroyed = false; // 标记房间是否已被销毁
+    // 休眠中的房间不在房间线程的推进列表中，由消息或任务唤醒
+    private final AtomicBoolean hibernating = new AtomicBoolean();
+    private Timeout destroyTimeout; // 销毁检查定时器，只在房间线程中访问
 
-    public RoomService(String roomId, RoomThread roomThread) {
+    public RoomService(String roomId, RoomType roomType, RoomThread roomThread) {
         this.roomId = roomId;
+        this.roomType = roomType;
+        this.tickInterval = roomType.getTickIntervalNanos();
         this.roomThread = roomThread;
+        this.messageQueue = new MpscArrayQueue<>(MAX_PENDING_PER_PLAYER * roomType.getMaxPlayers());
     }
 
     /**
      * 添加消息到队列
-     * @param channelId
-     * @param data
+     * @param message
      */
-    public void addMessage(String channelId, JsonNode data) {
+    public void addMessage(Message message) {
         try {
             // 如果房间已被销毁，则忽略消息
             if (destroyed) {
                 return;
             }
-            
-            Message message = new Message(channelId, data);
-            messageQueue.put(message);
-        } catch (InterruptedException e) {
-            logger.error("添加消息到队列时被中断", e);
+
+            // 每个玩家只能占用自己的配额，一个玩家刷消息不会挤占其他玩家
+            int slot = message.getSlot();
+            if (slot < 0 || slot >= pendingBySlot.length()) {
+                logger.warn("消息槽位无效，忽略: {}", message);
+                return;
+            }
+            if (pendingBySlot.incrementAndGet(slot) > MAX_PENDING_PER_PLAYER) {
+                pendingBySlot.decrementAndGet(slot);
+                handleOverflow(message);
+                return;
+            }
+            boolean queued = true;
+            if (roomThread.inThread() && messageQueue.isEmpty()) {
+                // EventLoop模式下频道与房间在同一线程，没有积压时直接处理，不经过队列
+                handleMessage(message);
+                flushWrites();
+                queued = false;
+            } else if (!messageQueue.offer(message)) {
+                pendingBySlot.decrementAndGet(slot);
+                handleOverflow(message);
+                return;
+            }
+            if (shouldWakeForInput(message, queued)) {
+                // 不等到下一帧的截止时间，房间线程立即处理
+                roomThread.wakeUp();
+            }
+            if (hibernating.get()) {
+                wake();
+            }
         } catch (Exception e) {
             logger.error("添加消息到队列时发生错误", e);
         }
     }
 
+    /**
+     * 帧输入是否需要立即唤醒房间线程：输入转发需要立即转发；
+     * 提前推进时，当前帧（及更早帧，会被归入当前帧）的输入可能使当前帧凑齐。
+     * 超前的输入在该帧成为当前帧时由房间线程检查，不需要唤醒
+     * 批量输入按其中最早的帧判断
+     * @param queued 输入是否进入了消息队列，否则已在房间线程中处理
+     */
+    private boolean shouldWakeForInput(Message message, boolean queued) {
+        int frame;
+        if (message.getType() == MessageType.FRAME_INPUT) {
+            frame = ((FrameInputMessage) message).getFrame();
+        } else if (message.getType() == MessageType.FRAME_INPUT_BATCH && ((FrameInputBatchMessage) message).getCount() > 0) {
+            frame = ((FrameInputBatchMessage) message).getFrame(0);
+        } else {
+            return false;
+        }
+        return (queued && inputRelay) || (EARLY_TICK && frame <= currentFrame);
+    }
+
+    /**
+     * 消息积压超过上限，按溢出策略处理（IO线程调用）
+     */
+    private void handleOverflow(Message message) {
+        long dropped = droppedMessages.incrementAndGet();
+        int sessionId = message.getSessionId();
+        if (OVERFLOW_POLICY == QueueOverflowPolicy.DISCONNECT) {
+            Channel channel = WebSocketSessionManager.getInstance().getChannel(sessionId);
+            if (channel != null && channel.isActive()) {
+                logger.warn("房间 {} 玩家 {} 消息积压超过上限 {}，断开连接", roomId, sessionId, MAX_PENDING_PER_PLAYER);
+                channel.close();
+            }
+        } else if (Long.bitCount(dropped) == 1) {
+            // 按2的幂次输出，避免刷屏
+            logger.warn("房间 {} 玩家 {} 消息积压超过上限 {}，丢弃消息，累计丢弃 {}", roomId, sessionId, MAX_PENDING_PER_PLAYER, dropped);
+        }
+    }
+
     /**
      * 获取房间ID
      * @return
@@ -65,6 +186,10 @@ public class RoomService {
         return roomId;
     }
 
+    public RoomType getRoomType() {
+        return roomType;
+    }
+
     /**
      * 创建房间（支持多种房间类型）
      * @param players 玩家数组
@@ -76,7 +201,7 @@ public class RoomService {
         }
 
         // 创建房间
-        room = new Room(roomId);
+        Room newRoom = new Room(roomId, roomType.getTickRate(), roomType.getRedundantFrames());
 
         // 根据玩家数量确定阵营分配方式
         Camp[] camps;
@@ -110,12 +235,16 @@ public class RoomService {
         // 添加玩家到房间
         for (int i = 0; i < players.length; i++) {
             Player player = new Player(camps[i]);
-            player.setChannelId(players[i].getChannelId());
+            player.setSessionId(players[i].getSessionId());
             player.setName(players[i].getName());
-            room.addPlayer(player);
-            
-            // 在WebSocketSessionManager中记录映射关系
-            WebSocketSessionManager.getInstance().setChannelRoomMapping(players[i].getChannelId(), roomId);
+            newRoom.addPlayer(player);
+        }
+        inputRelay = newRoom.hasRelaySlots();
+        room = newRoom;
+
+        // 房间发布后再绑定频道，IO线程读到绑定时房间已可用
+        for (Player player : room.getPlayers()) {
+            bindChannel(player);
         }
         
         logger.info("创建房间: {}，玩家数量：{}", roomId, players.length);
@@ -171,7 +300,7 @@ public class RoomService {
             
             String message = objectMapper.writeValueAsString(response);
 
-            WebSocketSessionManager.getInstance().sendMessage(sendPlayer.getChannelId(), message);
+            WebSocketSessionManager.getInstance().sendMessage(sendPlayer.getSessionId(), message);
 
             logger.info("向玩家[{}]发送匹配成功消息: {}", sendPlayer, message);
         } catch (Exception e) {
@@ -180,25 +309,160 @@ public class RoomService {
     }
 
     /**
-     * 处理断线
-     * @param channelId
+     * 把频道绑定到本房间，绑定后频道已关闭的视为断线
+     * @param player
      */
-    public void handleDisconnect(String channelId) {
-        if (room != null) {
-            room.handleDisconnect(channelId);
+    private void bindChannel(Player player) {
+        Channel channel = WebSocketSessionManager.getInstance().getChannel(player.getSessionId());
+        if (channel == null) {
+            player.setChannelValid(false);
+            return;
+        }
+
+        channel.attr(RoomBinding.KEY).set(new RoomBinding(this, player.getSlot()));
+        // 频道可能在绑定前已断开，此时handlerRemoved读不到绑定，由这里补充处理
+        if (!channel.isActive()) {
+            handleDisconnect(player.getSessionId(), player.getSlot());
+            return;
+        }
+        EventLoop eventLoop = roomThread.getEventLoop();
+        if (eventLoop != null && channel.eventLoop() != eventLoop) {
+            migrateChannel(channel, eventLoop);
         }
     }
+
+    /**
+     * 把频道重新注册到房间所在的EventLoop，之后读取输入和广播帧都在同一线程中完成
+     * <p>
+     * 管道中绑定在原EventLoop上的定时任务（往返时延测量的ping）在重新注册时由
+     * WebSocketFrameHandler.channelRegistered改到新的EventLoop上调度
+     * @param channel
+     * @param eventLoop
+     */
+    private void migrateChannel(Channel channel, EventLoop eventLoop) {
+        channel.deregister().addListener((ChannelFutureListener) deregistered -> {
+            if (!deregistered.isSuccess()) {
+                logger.warn("房间 {} 频道 {} 注销失败，保留在原EventLoop", roomId, channel.id(), deregistered.cause());
+                return;
+            }
+            eventLoop.register(channel).addListener((ChannelFutureListener) registered -> {
+                if (registered.isSuccess()) {
+                    logger.debug("房间 {} 频道 {} 已迁移到房间所在的EventLoop", roomId, channel.id());
+                } else {
+                    logger.error("房间 {} 频道 {} 重新注册失败，关闭连接", roomId, channel.id(), registered.cause());
+                    channel.close();
+                }
+            });
+        });
+    }
+
+    /**
+     * 处理断线（IO线程调用，转交房间线程处理）
+     * @param sessionId
+     * @param slot
+     */
+    public void handleDisconnect(int sessionId, int slot) {
+        executeTask(() -> {
+            if (room != null) {
+                room.handleDisconnect(sessionId, slot);
+                inputRelay = room.hasRelaySlots();
+                scheduleDestroyCheck();
+            }
+        });
+    }
+
+    /**
+     * 在房间当前所属的线程中执行任务，任务到达时房间已迁移则转发给新线程
+     * @param task
+     */
+    public void executeTask(Runnable task) {
+        RoomThread thread = roomThread;
+        thread.executeTask(() -> {
+            if (roomThread != thread) {
+                executeTask(task);
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                flushWrites();
+            }
+        });
+    }
     
     /**
      * 玩家离开房间
-     * @param channelId
+     * @param sessionId
+     * @param slot
      */
-    public void handlePlayerLeave(String channelId) {
+    public void handlePlayerLeave(int sessionId, int slot) {
         if (room != null) {
-            room.removePlayer(channelId);
-            WebSocketSessionManager.getInstance().removeChannelRoomMapping(channelId);
+            room.removePlayer(sessionId, slot);
+            inputRelay = room.hasRelaySlots();
+            Channel channel = WebSocketSessionManager.getInstance().getChannel(sessionId);
+            if (channel != null) {
+                RoomBinding.unbind(channel, this);
+            }
+            scheduleDestroyCheck();
+        }
+    }
+
+    /**
+     * 房间变空后在时间轮上安排销毁检查，到期时转交房间线程确认（房间线程调用）
+     */
+    private void scheduleDestroyCheck() {
+        long emptySince = room.getEmptySince();
+        if (emptySince == -1 || destroyTimeout != null || destroyed) {
+            return;
+        }
+        long delay = Math.max(emptySince + Room.DESTROY_DELAY - System.currentTimeMillis(), 0) + 1;
+        destroyTimeout = WheelTimer.schedule(() -> executeTask(this::checkDestroy), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkDestroy() {
+        destroyTimeout = null;
+        if (destroyed) {
+            return;
+        }
+        if (room.shouldDestroy()) {
+            destroyRoom();
+        } else {
+            // 计时期间有玩家回到房间后又离开，按新的计时重新安排
+            scheduleDestroyCheck();
+        }
+    }
+
+    /**
+     * 房间是否需要按帧推进：游戏已开始且有在线玩家（房间线程调用）
+     */
+    public boolean isTicking() {
+        return !destroyed && room != null && room.isGameStarted() && room.getOnlinePlayerCount() > 0;
+    }
+
+    /**
+     * 进入休眠，调用前房间线程已将房间移出推进列表（房间线程调用）
+     */
+    public void hibernate() {
+        tickScheduled = false;
+        hibernating.set(true);
+        // 休眠前已到达的消息需要立即处理
+        if (!messageQueue.isEmpty()) {
+            wake();
+        }
+    }
+
+    /**
+     * 唤醒休眠的房间（任意线程）
+     */
+    public void wake() {
+        if (hibernating.compareAndSet(true, false)) {
+            executeTask(() -> roomThread.resumeRoom(this));
         }
     }
+
+    public boolean isHibernating() {
+        return hibernating.get();
+    }
     
     /**
      * 停止服务
@@ -214,49 +478,217 @@ public class RoomService {
     public RoomThread getRoomThread() {
         return roomThread;
     }
+
+    /**
+     * 修改所属房间线程，只能在原线程从其房间列表移除本房间之后调用
+     * @param roomThread
+     */
+    public void setRoomThread(RoomThread roomThread) {
+        this.roomThread = roomThread;
+    }
+
+    /**
+     * 累计处理耗时（房间线程调用）
+     * @param nanos 耗时（纳秒）
+     */
+    public void addBusyTime(long nanos) {
+        busyTime += nanos;
+    }
+
+    /**
+     * 结束一个统计窗口，更新平滑负载（房间线程调用）
+     * @param windowNanos 窗口长度（纳秒）
+     * @param alpha 平滑系数
+     */
+    public void updateLoad(long windowNanos, double alpha) {
+        double sample = (double) busyTime / windowNanos;
+        load += alpha * (sample - load);
+        busyTime = 0;
+    }
+
+    /**
+     * 平滑后的负载，即占用房间线程时间的比例
+     */
+    public double getLoad() {
+        return load;
+    }
+
+    /**
+     * 待处理的消息数
+     */
+    public int getQueueSize() {
+        return messageQueue.size();
+    }
+
+    /**
+     * 因积压超过上限而丢弃的消息总数
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
     
 
     
+    /**
+     * 取出统计周期内单个频道的最大写积压（字节），仅房间线程调用
+     */
+    public long takePeakQueuedBytes() {
+        Room current = room;
+        return current != null ? current.takePeakQueuedBytes() : 0;
+    }
+
+    /**
+     * 取出统计周期内踢出的慢连接数，仅房间线程调用
+     */
+    public int takeEvictions() {
+        Room current = room;
+        return current != null ? current.takeEvictions() : 0;
+    }
+
+    /**
+     * 取出统计周期内的迟到输入数，仅房间线程调用
+     */
+    public int takeLateInputs() {
+        Room current = room;
+        return current != null ? current.takeLateInputs() : 0;
+    }
+
+    /**
+     * 刷新本轮处理中写入的广播，房间线程在处理完消息和推进帧后调用，每轮每个频道最多刷新一次
+     */
+    public void flushWrites() {
+        Room current = room;
+        if (current != null) {
+            current.flushWrites();
+        }
+    }
+
     /**
      * 处理消息队列
      */
     public void processMessageQueue() {
-        // 一次性获取所有消息
-        List<Message> messages = new ArrayList<>();
-        messageQueue.drainTo(messages);
-
-        // 遍历所有消息，根据消息类型处理
-        for (Message message : messages) {
-            JsonNode data = message.getData();
-            String type = data.has("type") ? data.get("type").asText() : "";
-            String channelId = message.getChannelId();
-
-            switch (type) {
-                case "ready":
-                    room.markPlayerReady(channelId);
-                    break;
-                case "frameInput":
-                    room.addFrameInput(channelId, data);
-                    break;
-                case "leave":
-                    handlePlayerLeave(channelId);
-                    break;
-                default:
-                    // 处理其他类型的消息
-                    logger.warn("房间未知消息类型: {}", type);
-                    break;
+        // 取出本次已到达的消息，不产生任何分配
+        messageQueue.drain(messageHandler);
+    }
+
+    private void handleMessage(Message message) {
+        pendingBySlot.decrementAndGet(message.getSlot());
+        int sessionId = message.getSessionId();
+
+        switch (message.getType()) {
+            case READY:
+                room.markPlayerReady(sessionId, message.getSlot());
+                break;
+            case FRAME_INPUT:
+                room.addFrameInput((FrameInputMessage) message);
+                break;
+            case FRAME_INPUT_BATCH:
+                room.addFrameInputBatch((FrameInputBatchMessage) message);
+                break;
+            case LEAVE:
+                handlePlayerLeave(sessionId, message.getSlot());
+                break;
+            default:
+                // 处理其他类型的消息
+                logger.warn("房间未知消息类型: {}", message.getType());
+                break;
+        }
+    }
+
+    /**
+     * 按绝对截止时间推进房间帧
+     * <p>
+     * 截止时间每帧固定累加帧间隔，处理耗时和休眠误差不会累积成漂移；
+     * 落后时连续补帧，落后超过MAX_CATCH_UP_TICKS帧时跳过剩余帧并保持原有相位。
+     * @param now 当前时间（System.nanoTime）
+     * @param stats 所在房间线程的调度统计
+     * @return 下一帧的截止时间
+     */
+    public long tick(long now, TickStats stats) {
+        if (!tickScheduled) {
+            nextTickTime = now;
+            tickScheduled = true;
+        }
+
+        int ticks = 0;
+        while (now - nextTickTime >= 0) {
+            if (ticks == MAX_CATCH_UP_TICKS) {
+                long behind = (now - nextTickTime) / tickInterval + 1;
+                stats.recordSkipped(behind);
+                nextTickTime += behind * tickInterval;
+                logger.warn("房间 {} 落后 {} 帧，跳过", roomId, behind);
+                break;
             }
+            stats.recordLateness(now - nextTickTime);
+            pulse();
+            lastTickTime = now;
+            nextTickTime += tickInterval;
+            ticks++;
         }
+        long wake = EARLY_TICK ? tickEarly(now, stats) : nextTickTime;
+        publishFrameZero();
+        return wake;
+    }
+
+    /**
+     * 发布第0帧的截止时间，第N帧的截止时间为 frameZero + N * 帧间隔；
+     * 跳帧时截止时间前进而帧号不变，因此每次推进后重新计算
+     */
+    private void publishFrameZero() {
+        Room current = room;
+        if (current != null && current.isGameStarted()) {
+            frameZeroMicros = ServerClock.toMicros(nextTickTime - (long) current.getCurrentFrame() * tickInterval);
+        }
+    }
+
+    /**
+     * 第0帧的截止时间（服务器时钟，微秒，可能为负数），游戏开始前返回NO_FRAME_ZERO（任意线程）
+     */
+    public long getFrameZeroMicros() {
+        return frameZeroMicros;
+    }
+
+    /**
+     * 帧间隔（微秒）
+     */
+    public long getTickIntervalMicros() {
+        return tickInterval / 1000;
+    }
+
+    /**
+     * 当前帧所有在线玩家的输入都已到齐时提前推进，不等截止时间
+     * <p>
+     * 每帧最早在上一帧的截止时间执行，且与上一帧至少间隔MIN_TICK_GAP，
+     * 提前量不超过一个帧间隔，截止时间仍按帧间隔累加，平均帧率不变；
+     * 输入没有到齐的帧仍在截止时间执行，迟到输入的处理不变。
+     * @return 下一次需要检查的时间
+     */
+    private long tickEarly(long now, TickStats stats) {
+        Room current = room;
+        if (current == null || !current.isGameStarted()) {
+            return nextTickTime;
+        }
+        while (current.isFrameComplete()) {
+            long earliest = nextTickTime - tickInterval;
+            if (lastTickTime + MIN_TICK_GAP - earliest > 0) {
+                earliest = lastTickTime + MIN_TICK_GAP;
+            }
+            if (now - earliest < 0) {
+                // 输入已到齐，在允许的最早时间执行
+                return earliest;
+            }
+            stats.recordEarly();
+            pulse();
+            lastTickTime = now;
+            nextTickTime += tickInterval;
+        }
+        return nextTickTime;
     }
 
     public void pulse() {
         if (room != null && room.isGameStarted()) {
             room.update();
-        }
-        
-        // 检查房间是否应该销毁
-        if (room != null && !destroyed && room.shouldDestroy()) {
-            destroyRoom();
+            currentFrame = room.getCurrentFrame();
         }
     }
     
@@ -266,6 +698,18 @@ public class RoomService {
     private void destroyRoom() {
         logger.info("正在销毁房间: {}", roomId);
         destroyed = true;
+        if (destroyTimeout != null) {
+            destroyTimeout.cancel();
+            destroyTimeout = null;
+        }
+
+        // 解除仍在线频道的房间绑定
+        for (Player player : room.getPlayers()) {
+            Channel channel = WebSocketSessionManager.getInstance().getChannel(player.getSessionId());
+            if (channel != null) {
+                RoomBinding.unbind(channel, this);
+            }
+        }
         
         // 通知RoomServiceManager移除此房间服务
         RoomServiceManager.getInstance().removeRoomService(roomId);
@@ -1,25 +1,84 @@
 package org.game.ra2.service;
 
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.game.ra2.entity.RoomType;
 import org.game.ra2.thread.RoomThread;
+import org.game.ra2.thread.VirtualThreads;
+import org.game.ra2.util.ServerConfig;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * RoomService管理器，用于管理多个RoomService实例
  */
 public class RoomServiceManager {
+    private static final Logger logger = LogManager.getLogger(RoomServiceManager.class);
+    /**
+     * 房间执行模式：thread（平台线程池，多个房间共享一个线程）、virtual（每个房间一个虚拟线程，需要Java 21）、
+     * eventloop（房间运行在玩家频道所在的Netty EventLoop上）
+     */
+    private static final String EXECUTION_MODE = ServerConfig.getString("ra2.room.executionMode", "thread");
+    /**
+     * 房间线程数下限和上限，默认按CPU核数计算
+     */
+    private static final int MAX_THREADS = Math.max(1, ServerConfig.getInt("ra2.room.maxThreads", Runtime.getRuntime().availableProcessors()));
+    private static final int MIN_THREADS = Math.max(1, Math.min(MAX_THREADS,
+            ServerConfig.getInt("ra2.room.minThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 4))));
+    /**
+     * 活跃线程平均负载连续SUSTAIN_CHECKS次高于GROW_THRESHOLD时扩容，低于SHRINK_THRESHOLD时缩容
+     */
+    private static final double GROW_THRESHOLD = ServerConfig.getInt("ra2.room.growThresholdPercent", 60) / 100.0;
+    private static final double SHRINK_THRESHOLD = ServerConfig.getInt("ra2.room.shrinkThresholdPercent", 20) / 100.0;
+    private static final int SUSTAIN_CHECKS = 3;
+    /**
+     * 负载均衡和伸缩检查间隔（秒），0表示不做迁移和伸缩，线程数固定为下限
+     */
+    private static final int REBALANCE_INTERVAL = ServerConfig.getInt("ra2.room.rebalanceIntervalSeconds", 5);
+    /**
+     * 线程负载超过该值时才考虑迁移房间
+     */
+    private static final double MIGRATE_THRESHOLD = ServerConfig.getInt("ra2.room.migrateThresholdPercent", 70) / 100.0;
+    /**
+     * 最忙和最闲线程的负载差超过该值时才迁移，避免来回迁移
+     */
+    private static final double MIGRATE_MARGIN = 0.2;
+    /**
+     * 选择线程时每个玩家名额和每条待处理消息折算的负载，
+     * 线程负载已测得时以实测为主，空闲时按房间人数上限区分
+     */
+    private static final double PLAYER_WEIGHT = 0.001;
+    private static final double QUEUE_WEIGHT = 0.0001;
+
     /**
      * 单例实例
      */
     private static final RoomServiceManager instance = new RoomServiceManager();
     /**
-     * 房间线程列表
+     * 活跃的房间线程，新房间只分配给活跃线程
+     */
+    private final List<RoomThread> roomThreads = new CopyOnWriteArrayList<>();
+    /**
+     * 缩容后休眠待用的房间线程，扩容时优先复用（在锁内访问）
      */
-    private final List<RoomThread> roomThreads = new ArrayList<>();
-    private final AtomicInteger currentIndex = new AtomicInteger(0);
+    private final Deque<RoomThread> idleThreads = new ArrayDeque<>();
+    private final List<RoomThread> allThreads = new CopyOnWriteArrayList<>();
+    private int overloadChecks = 0; // 以下两个字段只在均衡线程中访问
+    private int underloadChecks = 0;
     /**
      * 房间服务缓存
      */
@@ -28,38 +87,268 @@ public class RoomServiceManager {
      * roomId分配器
      */
     private final AtomicInteger roomIdAllocator = new AtomicInteger(0);
+    /**
+     * 是否使用虚拟线程模式
+     */
+    private final boolean virtualMode;
+    /**
+     * 是否使用EventLoop模式
+     */
+    private final boolean eventLoopMode;
+    /**
+     * EventLoop模式下每个EventLoop对应的房间循环，首次有房间分配到该EventLoop时创建
+     */
+    private final ConcurrentHashMap<EventLoop, RoomThread> loopThreads = new ConcurrentHashMap<>();
+    /**
+     * 处理客户端连接的EventLoopGroup，EventLoop模式下房间的玩家都已断线时从中选择房间循环
+     */
+    private volatile EventLoopGroup workerGroup;
     
     private RoomServiceManager() {
-        // 初始化多个RoomThread实例
-        for (int i = 0; i < 4; i++) {
-            RoomThread roomThread = new RoomThread("RoomThread-" + i);
-            roomThreads.add(roomThread);
-            roomThread.start();
+        boolean virtual = "virtual".equalsIgnoreCase(EXECUTION_MODE);
+        if (virtual && !VirtualThreads.isSupported()) {
+            logger.warn("当前Java版本 {} 不支持虚拟线程，使用平台线程池", System.getProperty("java.version"));
+            virtual = false;
+        }
+        virtualMode = virtual;
+        eventLoopMode = "eventloop".equalsIgnoreCase(EXECUTION_MODE);
+        if (virtualMode) {
+            // 每个房间创建时启动自己的虚拟线程，不需要线程池和负载均衡
+            logger.info("房间执行模式: 虚拟线程");
+            return;
+        }
+        if (eventLoopMode) {
+            // 房间跟随玩家频道分配到EventLoop，不需要线程池和负载均衡
+            logger.info("房间执行模式: Netty EventLoop");
+            return;
+        }
+
+        // 按下限初始化RoomThread实例，负载升高后再扩容
+        for (int i = 0; i < MIN_THREADS; i++) {
+            roomThreads.add(newRoomThread());
+        }
+        logger.info("房间线程池: 初始 {}, 下限 {}, 上限 {}", MIN_THREADS, MIN_THREADS, MAX_THREADS);
+
+        if (REBALANCE_INTERVAL > 0) {
+            ScheduledExecutorService balancer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "RoomBalancer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            balancer.scheduleWithFixedDelay(this::balance, REBALANCE_INTERVAL, REBALANCE_INTERVAL, TimeUnit.SECONDS);
         }
     }
     
     public static RoomServiceManager getInstance() {
         return instance;
     }
+
+    /**
+     * 设置处理客户端连接的EventLoopGroup，服务器启动时调用
+     * @param workerGroup
+     */
+    public void setWorkerGroup(EventLoopGroup workerGroup) {
+        this.workerGroup = workerGroup;
+    }
     
     /**
      * 创建一个新的RoomService并分配给一个RoomThread
+     * @param roomType 房间类型，决定房间帧率
+     * @param players 房间的玩家，EventLoop模式下按玩家频道所在的EventLoop选择房间循环
      * @return RoomService实例
      */
-    public RoomService createRoomService() {
+    public RoomService createRoomService(RoomType roomType, MatchService.PlayerInfo[] players) {
         // 分配房间ID
         int incId = roomIdAllocator.getAndIncrement();
         String roomId = "room_" + incId;
-        // 分配一个RoomThread
-        int index = currentIndex.getAndIncrement() % roomThreads.size();
-        RoomThread roomThread = roomThreads.get(index);
-        // 创建RoomService实例
-        RoomService roomService = new RoomService(roomId, roomThread);
-        roomServices.put(roomId, roomService);
-        roomThread.addRoomService(roomService);
+        // 分配给负载最低的RoomThread，与缩容互斥，保证分配任务先于撤离任务进入线程队列
+        RoomService roomService;
+        if (virtualMode) {
+            RoomThread roomThread = new RoomThread(roomId, true);
+            roomService = new RoomService(roomId, roomType, roomThread);
+            roomServices.put(roomId, roomService);
+            roomThread.addRoomService(roomService);
+            roomThread.start();
+            return roomService;
+        }
+        if (eventLoopMode) {
+            RoomThread roomThread = selectLoopThread(players);
+            roomService = new RoomService(roomId, roomType, roomThread);
+            roomServices.put(roomId, roomService);
+            roomThread.addRoomService(roomService);
+            return roomService;
+        }
+        synchronized (this) {
+            RoomThread roomThread = selectRoomThread();
+            // 创建RoomService实例
+            roomService = new RoomService(roomId, roomType, roomThread);
+            roomServices.put(roomId, roomService);
+            roomThread.addRoomService(roomService);
+        }
         return roomService;
     }
     
+    /**
+     * 选择负载最低的房间线程
+     */
+    private RoomThread selectRoomThread() {
+        RoomThread selected = null;
+        double minScore = Double.MAX_VALUE;
+        for (RoomThread roomThread : roomThreads) {
+            double score = loadScore(roomThread);
+            if (score < minScore) {
+                minScore = score;
+                selected = roomThread;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 选择承载玩家最多的EventLoop上的房间循环，其余玩家的频道在绑定房间时迁移过去
+     * @param players 房间的玩家
+     */
+    private RoomThread selectLoopThread(MatchService.PlayerInfo[] players) {
+        Map<EventLoop, Integer> counts = new HashMap<>();
+        EventLoop selected = null;
+        int maxCount = 0;
+        for (MatchService.PlayerInfo player : players) {
+            Channel channel = WebSocketSessionManager.getInstance().getChannel(player.getSessionId());
+            if (channel == null || !channel.isRegistered()) {
+                continue;
+            }
+            int count = counts.merge(channel.eventLoop(), 1, Integer::sum);
+            if (count > maxCount) {
+                maxCount = count;
+                selected = channel.eventLoop();
+            }
+        }
+        if (selected == null) {
+            // 所有玩家都已断线，房间不会开始，放到任意一个已有的房间循环上，还没有时使用worker的EventLoop
+            RoomThread any = loopThreads.values().stream().findFirst().orElse(null);
+            if (any != null) {
+                return any;
+            }
+            EventLoopGroup group = workerGroup;
+            if (group == null) {
+                throw new IllegalStateException("EventLoop模式下尚未设置worker EventLoopGroup");
+            }
+            selected = group.next();
+        }
+        return loopThreads.computeIfAbsent(selected, eventLoop -> {
+            RoomThread roomThread = new RoomThread("RoomLoop-" + loopThreads.size(), eventLoop);
+            roomThread.start();
+            return roomThread;
+        });
+    }
+
+    private static double loadScore(RoomThread roomThread) {
+        return roomThread.getUtilization()
+                + roomThread.getPlayerCapacity() * PLAYER_WEIGHT
+                + roomThread.getQueueDepth() * QUEUE_WEIGHT;
+    }
+
+    private RoomThread newRoomThread() {
+        RoomThread roomThread = new RoomThread("RoomThread-" + allThreads.size());
+        allThreads.add(roomThread);
+        roomThread.start();
+        return roomThread;
+    }
+
+    /**
+     * 定期检查：伸缩线程池，然后均衡线程间的负载
+     */
+    private void balance() {
+        try {
+            resize();
+            rebalance();
+        } catch (Exception e) {
+            logger.error("房间负载均衡时发生错误", e);
+        }
+    }
+
+    /**
+     * 按活跃线程的平均负载伸缩线程池
+     * <p>
+     * 扩容时优先唤醒休眠的线程，新线程由随后的负载均衡迁入房间；
+     * 缩容时把负载最低的线程移出活跃列表，它的房间迁移到其他线程后线程进入休眠。
+     */
+    private void resize() {
+        // 缩容后仍有房间分配到休眠线程（竞争窗口内创建的房间），再次撤离
+        synchronized (this) {
+            for (RoomThread idle : idleThreads) {
+                if (idle.getPlayerCapacity() > 0) {
+                    idle.evacuate(this::selectRoomThread);
+                }
+            }
+        }
+
+        int active = roomThreads.size();
+        double total = 0;
+        for (RoomThread roomThread : roomThreads) {
+            total += roomThread.getUtilization();
+        }
+        double average = total / active;
+
+        overloadChecks = average > GROW_THRESHOLD ? overloadChecks + 1 : 0;
+        // 缩容后剩余线程的平均负载也要低于扩容阈值，避免来回伸缩
+        boolean underload = average < SHRINK_THRESHOLD && active > 1 && total / (active - 1) < GROW_THRESHOLD;
+        underloadChecks = underload ? underloadChecks + 1 : 0;
+
+        if (overloadChecks >= SUSTAIN_CHECKS && active < MAX_THREADS) {
+            overloadChecks = 0;
+            synchronized (this) {
+                RoomThread roomThread = idleThreads.isEmpty() ? newRoomThread() : idleThreads.poll();
+                roomThreads.add(roomThread);
+                logger.info("房间线程池扩容: {}，平均负载 {}，活跃线程数 {}", roomThread.getName(),
+                        String.format("%.3f", average), roomThreads.size());
+            }
+        } else if (underloadChecks >= SUSTAIN_CHECKS && active > MIN_THREADS) {
+            underloadChecks = 0;
+            synchronized (this) {
+                RoomThread victim = null;
+                for (RoomThread roomThread : roomThreads) {
+                    if (victim == null || loadScore(roomThread) < loadScore(victim)) {
+                        victim = roomThread;
+                    }
+                }
+                roomThreads.remove(victim);
+                idleThreads.push(victim);
+                victim.evacuate(this::selectRoomThread);
+                logger.info("房间线程池缩容: {}，平均负载 {}，活跃线程数 {}", victim.getName(),
+                        String.format("%.3f", average), roomThreads.size());
+            }
+        }
+    }
+
+    /**
+     * 负载均衡：最忙的线程超过阈值且明显比最闲的线程忙时，迁移一个房间过去
+     */
+    private void rebalance() {
+        RoomThread hottest = null;
+        RoomThread coolest = null;
+        for (RoomThread roomThread : roomThreads) {
+            if (hottest == null || roomThread.getUtilization() > hottest.getUtilization()) {
+                hottest = roomThread;
+            }
+            if (coolest == null || loadScore(roomThread) < loadScore(coolest)) {
+                coolest = roomThread;
+            }
+        }
+        if (hottest == null || hottest == coolest) {
+            return;
+        }
+
+        double gap = hottest.getUtilization() - coolest.getUtilization();
+        if (hottest.getUtilization() < MIGRATE_THRESHOLD || gap < MIGRATE_MARGIN) {
+            return;
+        }
+        // 迁移负载不超过差值一半的房间，迁移后两个线程不会互换角色
+        logger.info("房间线程负载不均衡: {} {}, {} {}", hottest.getName(), String.format("%.3f", hottest.getUtilization()),
+                coolest.getName(), String.format("%.3f", coolest.getUtilization()));
+        hottest.migrateRoom(coolest, gap / 2);
+    }
+
     /**
      * 根据房间ID获取RoomService
      * @param roomId 房间ID
@@ -84,9 +373,17 @@ public class RoomServiceManager {
      * 停止所有RoomService
      */
     public void stopAllServices() {
-        for (RoomThread roomThread : roomThreads) {
+        for (RoomThread roomThread : allThreads) {
             roomThread.stopRunning();
         }
+        for (RoomThread roomThread : loopThreads.values()) {
+            roomThread.stopRunning();
+        }
+        if (virtualMode) {
+            for (RoomService roomService : roomServices.values()) {
+                roomService.getRoomThread().stopRunning();
+            }
+        }
         roomServices.clear();
     }
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package org.game.ra2.service;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 会话注册表：为每个连接分配紧凑的int句柄，按数组下标O(1)查找
+ * <p>
+ * 句柄由槽位下标（低20位）和槽位代数（高位）组成，槽位复用后旧句柄不会命中新连接。
+ * 分配和释放在锁内进行（只在建立/断开连接时发生），查找无锁。
+ */
+public class SessionRegistry {
+    /**
+     * 无效句柄
+     */
+    public static final int INVALID = -1;
+    /**
+     * 频道上会话句柄的属性键
+     */
+    public static final AttributeKey<Integer> SESSION_ID = AttributeKey.valueOf("sessionId");
+
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int MAX_GENERATION = Integer.MAX_VALUE >>> INDEX_BITS;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private volatile AtomicReferenceArray<Channel> channels = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile int[] handles = new int[INITIAL_CAPACITY];
+
+    // 以下字段只在锁内访问
+    private int[] generations = new int[INITIAL_CAPACITY];
+    private int[] freeIndexes = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private int nextIndex;
+    private int size;
+
+    public SessionRegistry() {
+        Arrays.fill(handles, INVALID);
+    }
+
+    /**
+     * 注册频道并分配句柄
+     * @param channel 频道
+     * @return 会话句柄
+     */
+    public synchronized int register(Channel channel) {
+        int index;
+        if (freeCount > 0) {
+            index = freeIndexes[--freeCount];
+        } else {
+            if (nextIndex > INDEX_MASK) {
+                throw new IllegalStateException("会话数量超过上限: " + (INDEX_MASK + 1));
+            }
+            index = nextIndex++;
+            if (index >= generations.length) {
+                grow(generations.length * 2);
+            }
+        }
+
+        int generation = generations[index];
+        int handle = (generation << INDEX_BITS) | index;
+        handles[index] = handle;
+        channels.set(index, channel);
+        channel.attr(SESSION_ID).set(handle);
+        size++;
+        return handle;
+    }
+
+    /**
+     * 注销句柄，槽位进入下一代后可被复用
+     * @param handle 会话句柄
+     * @return 被注销的频道，句柄无效时返回null
+     */
+    public synchronized Channel unregister(int handle) {
+        int index = indexOf(handle);
+        if (index < 0 || handles[index] != handle) {
+            return null;
+        }
+
+        Channel channel = channels.get(index);
+        channels.set(index, null);
+        handles[index] = INVALID;
+        generations[index] = generations[index] == MAX_GENERATION ? 0 : generations[index] + 1;
+        freeIndexes[freeCount++] = index;
+        size--;
+        return channel;
+    }
+
+    /**
+     * 根据句柄获取频道
+     * @param handle 会话句柄
+     * @return 频道，句柄无效或已注销时返回null
+     */
+    public Channel get(int handle) {
+        int index = indexOf(handle);
+        if (index < 0) {
+            return null;
+        }
+        AtomicReferenceArray<Channel> current = channels;
+        if (index >= current.length()) {
+            return null;
+        }
+        Channel channel = current.get(index);
+        return channel != null && handles[index] == handle ? channel : null;
+    }
+
+    /**
+     * 当前会话数量
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 获取频道的会话句柄
+     * @param channel 频道
+     * @return 会话句柄，未注册时返回INVALID
+     */
+    public static int sessionId(Channel channel) {
+        Integer handle = channel.attr(SESSION_ID).get();
+        return handle != null ? handle : INVALID;
+    }
+
+    private static int indexOf(int handle) {
+        return handle < 0 ? -1 : handle & INDEX_MASK;
+    }
+
+    private void grow(int capacity) {
+        AtomicReferenceArray<Channel> newChannels = new AtomicReferenceArray<>(capacity);
+        AtomicReferenceArray<Channel> oldChannels = channels;
+        for (int i = 0; i < oldChannels.length(); i++) {
+            newChannels.set(i, oldChannels.get(i));
+        }
+        generations = Arrays.copyOf(generations, capacity);
+        freeIndexes = Arrays.copyOf(freeIndexes, capacity);
+        int[] newHandles = Arrays.copyOf(handles, capacity);
+        Arrays.fill(newHandles, oldChannels.length(), capacity, INVALID);
+        handles = newHandles;
+        channels = newChannels;
+    }
+}
@@ -1,13 +1,21 @@
 package org.game.ra2.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelConfig;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.game.ra2.netty.WireProtocol;
+import org.game.ra2.util.ObjectMapperProvider;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.OutputStream;
 
 /**
  * WebSocket会话管理器
@@ -15,8 +23,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class WebSocketSessionManager {
     private static final Logger logger = LogManager.getLogger(WebSocketSessionManager.class);
     private static WebSocketSessionManager instance = new WebSocketSessionManager();
-    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, String> channelRoomMap = new ConcurrentHashMap<>();
+    private final SessionRegistry sessions = new SessionRegistry();
 
     private WebSocketSessionManager() {
     }
@@ -25,69 +32,177 @@ public class WebSocketSessionManager {
         return instance;
     }
 
-    public void addChannel(Channel channel) {
-        channels.put(channel.id().asLongText(), channel);
+    /**
+     * 注册频道
+     * @param channel
+     * @return 分配的会话句柄
+     */
+    public int addChannel(Channel channel) {
+        return sessions.register(channel);
     }
 
-    public void removeChannel(String channelId) {
-        channels.remove(channelId);
-        channelRoomMap.remove(channelId);
+    public void removeChannel(int sessionId) {
+        sessions.unregister(sessionId);
     }
 
-    public Channel getChannel(String channelId) {
-        return channels.get(channelId);
+    public Channel getChannel(int sessionId) {
+        return sessions.get(sessionId);
     }
 
     /**
      * 线程安全的消息发送方法
-     * @param channelId
+     * @param sessionId
      * @param message
      */
-    public void sendMessage(String channelId, String message) {
-        Channel channel = channels.get(channelId);
+    public void sendMessage(int sessionId, String message) {
+        Channel channel = sessions.get(sessionId);
         if (channel != null && channel.isActive()) {
-            channel.eventLoop().execute(() -> {
-                channel.writeAndFlush(new TextWebSocketFrame(message)).addListener((ChannelFutureListener) future -> {
-                    if (!future.isSuccess()) {
-                        logger.error("消息发送失败 - 频道ID: {}, 消息: {}", channelId, message, future.cause());
-                    }
-                });
-            });
+            // 其他线程调用时由Netty转交频道所在的EventLoop；共享监听器，写失败时交给管道的exceptionCaught处理
+            channel.writeAndFlush(new TextWebSocketFrame(message)).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
         } else {
-            logger.warn("无法发送消息到频道: {}, 频道状态: {}", channelId, (channel != null ? "活跃=" + channel.isActive() : "不存在"));
+            logger.warn("无法发送消息到会话: {}, 频道状态: {}", sessionId, (channel != null ? "活跃=" + channel.isActive() : "不存在"));
+        }
+    }
+
+    /**
+     * 刷新频道的写缓冲，把之前广播写入的消息一次性发出
+     * <p>
+     * 广播只写入不刷新，房间在一帧（或一批消息、一个任务）处理结束后调用一次，
+     * 同一帧内的多条消息合并为一次系统调用。
+     * @param channels 频道，元素可为null
+     */
+    public void flush(Channel[] channels) {
+        for (int i = 0; i < channels.length; i++) {
+            Channel channel = channels[i];
+            if (channel != null && channel.isActive()) {
+                channel.flush();
+            }
         }
     }
-    
+
+    /**
+     * 广播消息：只编码一次到池化ByteBuf，再以retainedDuplicate方式分发给每个在线频道，需调用flush发出
+     * @param channels 接收消息的频道，元素可为null
+     * @param message 消息内容
+     */
+    public void broadcastMessage(Channel[] channels, JsonNode message) {
+        if (!hasProtocol(channels, null)) {
+            return;
+        }
+
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            ObjectMapperProvider.getInstance().writeValue((OutputStream) new ByteBufOutputStream(buf), message);
+        } catch (Exception e) {
+            buf.release();
+            logger.error("广播消息编码失败", e);
+            return;
+        }
+
+        broadcastFrame(channels, new TextWebSocketFrame(buf), null);
+    }
+
+    /**
+     * 广播已编码的文本消息给使用指定协议的频道，需调用flush发出
+     * @param channels 接收消息的频道，元素可为null
+     * @param content 已编码的UTF-8消息内容，调用后所有权转移给本方法
+     * @param protocol 协议过滤条件，null表示不过滤
+     */
+    public void broadcastText(Channel[] channels, ByteBuf content, WireProtocol protocol) {
+        broadcastFrame(channels, new TextWebSocketFrame(content), protocol);
+    }
+
+    /**
+     * 广播二进制消息给使用指定协议的频道，需调用flush发出
+     * @param channels 接收消息的频道，元素可为null
+     * @param content 已编码的消息内容，调用后所有权转移给本方法
+     * @param protocol 协议过滤条件，null表示不过滤
+     */
+    public void broadcastBinary(Channel[] channels, ByteBuf content, WireProtocol protocol) {
+        broadcastFrame(channels, new BinaryWebSocketFrame(content), protocol);
+    }
+
     /**
-     * 设置频道与房间的映射关系
-     * @param channelId 频道ID
-     * @param roomId 房间ID
+     * 写入单个频道的文本消息，需调用flush发出
+     * @param channel 频道
+     * @param content 已编码的UTF-8消息内容，调用后所有权转移给本方法
      */
-    public void setChannelRoomMapping(String channelId, String roomId) {
-        channelRoomMap.put(channelId, roomId);
+    public void writeText(Channel channel, ByteBuf content) {
+        channel.write(new TextWebSocketFrame(content), channel.voidPromise());
     }
-    
+
     /**
-     * 获取频道所属的房间ID
-     * @param channelId 频道ID
-     * @return 房间ID
+     * 写入单个频道的二进制消息，需调用flush发出
+     * @param channel 频道
+     * @param content 已编码的消息内容，调用后所有权转移给本方法
      */
-    public String getRoomIdByChannel(String channelId) {
-        return channelRoomMap.get(channelId);
+    public void writeBinary(Channel channel, ByteBuf content) {
+        channel.write(new BinaryWebSocketFrame(content), channel.voidPromise());
     }
 
     /**
-     * channel存在房间
+     * 频道已写入但尚未发送到网络的字节数（任意线程）
+     * <p>
+     * 由公开的高低水位余量推算，不访问只能在EventLoop中使用的Channel.Unsafe：
+     * 可写时积压 = 高水位 - bytesBeforeUnwritable + 1，不可写时积压 = 低水位 + bytesBeforeWritable - 1。
+     * 包含Netty对每条消息估算的额外开销，只用于统计和比较。
+     * @param channel 频道
+     * @return 写积压字节数，频道已关闭时返回0
      */
-    public boolean isChannelInRoom(String channelId) {
-        return channelRoomMap.containsKey(channelId);
+    public long getQueuedBytes(Channel channel) {
+        if (!channel.isActive()) {
+            return 0;
+        }
+        ChannelConfig config = channel.config();
+        long beforeUnwritable = channel.bytesBeforeUnwritable();
+        if (beforeUnwritable > 0) {
+            return Math.max(0, config.getWriteBufferHighWaterMark() - beforeUnwritable + 1);
+        }
+        long beforeWritable = channel.bytesBeforeWritable();
+        if (beforeWritable > 0) {
+            return config.getWriteBufferLowWaterMark() + beforeWritable - 1;
+        }
+        // 两次读取之间可写状态发生了变化，积压处于两个水位之间
+        return config.getWriteBufferHighWaterMark();
+    }
+
+    /**
+     * 是否存在使用指定协议的在线频道
+     * @param channels 频道，元素可为null
+     * @param protocol 协议，null表示任意协议
+     */
+    public boolean hasProtocol(Channel[] channels, WireProtocol protocol) {
+        for (int i = 0; i < channels.length; i++) {
+            if (matches(channels[i], protocol)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void broadcastFrame(Channel[] channels, WebSocketFrame frame, WireProtocol protocol) {
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                Channel channel = channels[i];
+                if (matches(channel, protocol)) {
+                    // 只写入不刷新；voidPromise不分配future，写失败时由管道的exceptionCaught处理
+                    channel.write(frame.retainedDuplicate(), channel.voidPromise());
+                }
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static boolean matches(Channel channel, WireProtocol protocol) {
+        return channel != null && channel.isActive() && (protocol == null || WireProtocol.of(channel) == protocol);
     }
 
     /**
-     * 移除频道与房间的映射关系
-     * @param channelId 频道ID
+     * 会话存在房间
      */
-    public void removeChannelRoomMapping(String channelId) {
-        channelRoomMap.remove(channelId);
+    public boolean isChannelInRoom(int sessionId) {
+        Channel channel = sessions.get(sessionId);
+        return channel != null && RoomBinding.of(channel) != null;
     }
-}
\ No newline at end of file
+}
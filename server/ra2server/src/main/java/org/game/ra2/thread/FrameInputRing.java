@@ -0,0 +1,81 @@
+package org.game.ra2.thread;
+
+import java.util.Arrays;
+
+/**
+ * 帧输入环形缓冲区
+ * <p>
+ * 固定容量，按 frame & (capacity - 1) 定位帧槽位，每个帧槽位内按玩家槽位存放输入。
+ * 每个输入记录写入时的帧号，帧号不匹配即视为空，复用帧槽位时无需清理。
+ * 只在房间线程中访问。
+ */
+public class FrameInputRing {
+    private static final int EMPTY_FRAME = -1;
+
+    private final int capacity;
+    private final int mask;
+    private final int playerSlots;
+    /**
+     * 输入数据，下标为 帧槽位 * playerSlots + 玩家槽位
+     */
+    private final byte[][] inputs;
+    /**
+     * 每个输入对应的帧号
+     */
+    private final int[] frames;
+
+    /**
+     * @param minCapacity 最少可容纳的帧数，实际容量向上取整为2的幂
+     * @param playerSlots 每帧的玩家槽位数
+     */
+    public FrameInputRing(int minCapacity, int playerSlots) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.playerSlots = playerSlots;
+        this.inputs = new byte[capacity * playerSlots][];
+        this.frames = new int[capacity * playerSlots];
+        Arrays.fill(frames, EMPTY_FRAME);
+    }
+
+    /**
+     * 容量（帧数）
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 写入输入，同一帧同一玩家的输入后写覆盖先写
+     * @param frame 帧号，调用方保证在窗口范围内
+     * @param slot 玩家槽位
+     * @param data 输入数据
+     */
+    public void put(int frame, int slot, byte[] data) {
+        int index = index(frame, slot);
+        inputs[index] = data;
+        frames[index] = frame;
+    }
+
+    /**
+     * 读取输入
+     * @param frame 帧号
+     * @param slot 玩家槽位
+     * @return 输入数据，没有输入或已被覆盖时返回null
+     */
+    public byte[] get(int frame, int slot) {
+        int index = index(frame, slot);
+        return frames[index] == frame ? inputs[index] : null;
+    }
+
+    /**
+     * 是否已有输入
+     */
+    public boolean contains(int frame, int slot) {
+        return frames[index(frame, slot)] == frame;
+    }
+
+    private int index(int frame, int slot) {
+        return (frame & mask) * playerSlots + slot;
+    }
+}
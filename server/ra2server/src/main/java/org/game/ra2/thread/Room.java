@@ -1,39 +1,149 @@
 package org.game.ra2.thread;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.game.ra2.util.ObjectMapperProvider;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import org.game.ra2.entity.Camp;
 import org.game.ra2.entity.Player; // 使用独立的Player类
+import org.game.ra2.message.FrameInputBatchMessage;
+import org.game.ra2.message.FrameInputMessage;
+import org.game.ra2.netty.BinaryCodec;
+import org.game.ra2.netty.ClientFeature;
+import org.game.ra2.netty.JsonCodec;
+import org.game.ra2.netty.RttEstimator;
+import org.game.ra2.netty.WireProtocol;
 import org.game.ra2.service.WebSocketSessionManager;
+import org.game.ra2.util.ServerConfig;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 房间类
  */
 public class Room {
     private static final Logger logger = LogManager.getLogger(Room.class);
+    /**
+     * 最多接受超前当前帧多少帧的输入，超出窗口的输入被丢弃
+     */
+    private static final int MAX_FUTURE_FRAMES = ServerConfig.getInt("ra2.room.maxFutureFrames", 60);
+    /**
+     * 当前帧之前保留的历史帧数
+     */
+    private static final int HISTORY_FRAMES = ServerConfig.getInt("ra2.room.inputHistoryFrames", 10);
+    /**
+     * 频道持续不可写（写积压超过高水位）超过该时间（毫秒）时踢出玩家，
+     * 期间暂停向其发送帧同步，恢复可写后把落下的帧合并为一条补发消息
+     */
+    private static final int SLOW_CONSUMER_TIMEOUT_MS = ServerConfig.getInt("ra2.room.slowConsumerTimeoutMs", 5000);
+    /**
+     * 声明了空帧合并的客户端，连续空帧最多积累多长时间（毫秒）合并发送一次
+     */
+    private static final int EMPTY_RUN_MAX_MILLIS = ServerConfig.getInt("ra2.room.emptyRunMaxMillis", 250);
+    /**
+     * 是否接受客户端声明的输入转发，关闭后声明了的客户端按原有协议接收帧同步
+     */
+    private static final boolean INPUT_RELAY = ServerConfig.getBoolean("ra2.room.inputRelay", true);
+    /**
+     * 推荐输入延迟（帧）的上下限，上限不超过可接受的超前帧数
+     */
+    private static final int MIN_INPUT_DELAY = Math.max(0, ServerConfig.getInt("ra2.room.minInputDelayFrames", 1));
+    private static final int MAX_INPUT_DELAY = Math.max(MIN_INPUT_DELAY, Math.min(MAX_FUTURE_FRAMES, ServerConfig.getInt("ra2.room.maxInputDelayFrames", 10)));
+    /**
+     * 单个玩家的往返时延（含抖动）计入推荐输入延迟的上限（毫秒），避免一个玩家把所有人的输入延迟推到上限
+     */
+    private static final long MAX_PLAYER_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(ServerConfig.getInt("ra2.room.maxPlayerRttMs", 500));
+    /**
+     * 一个统计周期（1秒）内玩家的迟到输入超过该比例时，推荐输入延迟至少加一帧
+     */
+    private static final double LATE_INPUT_RATIO = 0.05;
+    /**
+     * 推荐值连续多少个统计周期低于当前值才减小，避免来回调整
+     */
+    private static final int DELAY_DECREASE_PERIODS = 3;
+    // 客户端功能位，决定各频道的帧同步发送方式
+    private static final int RUNS = ClientFeature.EMPTY_FRAME_RUNS.mask();
+    private static final int RELAY = ClientFeature.INPUT_RELAY.mask();
+    private static final int REDUNDANT = ClientFeature.REDUNDANT_FRAMES.mask();
     
     private final String id;
-    private final List<Player> players = new ArrayList<>();
-    private final Set<String> readyPlayers = new HashSet<>();
-    private final Map<Integer, Map<String, JsonNode>> frameInputs = new ConcurrentHashMap<>();
-    private final Map<String, String> channelIdToCampIdCache = new HashMap<>(); // 缓存channelId到campId的映射
+    private final Player[] slots = new Player[Camp.values().length]; // 按槽位下标存放的玩家，离开后置空
+    private final boolean[] readySlots = new boolean[slots.length];
+    private int slotCount = 0; // 已分配的槽位数
+    private int playerCount = 0; // 当前房间内的玩家数
+    private int readyCount = 0;
+    private final FrameInputRing frameInputs;
+    private final int catchUpFrames; // 慢连接最多可补发的帧数，对应SLOW_CONSUMER_TIMEOUT_MS
+    // 帧同步编码用的阵营ID和输入，每帧复用
+    private final int[] syncCampIds = new int[slots.length];
+    private final byte[][] syncInputs = new byte[slots.length][];
+    private final Channel[] channels = new Channel[slots.length]; // 按槽位下标存放的在线玩家频道，用于广播
+    private boolean flushPending; // 有已写入但未刷新的广播
+    private boolean syncEmpty; // 最近一次收集的帧是否全部为空输入
+    // 慢连接处理：不可写的频道不参与广播，记录开始落后的帧号，恢复可写后合并补发
+    private final Channel[] syncChannels = new Channel[slots.length]; // 本帧正常广播的频道
+    private final int[] lagFrom = new int[slots.length]; // 开始落后的帧号，-1表示未落后
+    private final long[] unwritableSince = new long[slots.length];
+    private long peakQueuedBytes; // 统计周期内单个频道的最大写积压（字节）
+    // 空帧合并：声明了该功能的频道不接收空帧的frameSync，连续空帧合并为一条emptyFrames消息
+    private final int emptyRunMaxFrames;
+    private boolean hasRunChannels; // 本帧正常广播的频道中有声明了空帧合并的
+    private int emptyRunStart = -1; // 尚未发送的连续空帧的起始帧号，-1表示没有
+    // 输入转发：声明了该功能的频道立即收到其他玩家的输入，帧同步只收到封帧确认
+    private int relaySlots; // 声明了输入转发的玩家数
+    private final int[] slotFeatures = new int[slots.length]; // 各玩家声明的功能
+    private final Channel[] selected = new Channel[slots.length]; // 按功能筛选出的广播对象，每次筛选复用
+    // 冗余帧：声明了该功能的频道收到的每条frameSync附带之前若干帧的非空输入
+    private final int redundantFrames; // 附带的帧数，0表示关闭
+    private int redundantSlots; // 声明了冗余帧的玩家数
+    private final int[] prevFrames; // 之前各帧中有输入的帧号，每帧复用
+    private final int[] prevCounts; // 对应帧中有输入的阵营数量
+    private final int[][] prevCampIds;
+    private final byte[][][] prevInputs;
+    private int evictions; // 统计周期内踢出的慢连接数
+    // 输入延迟建议：按各玩家的往返时延和迟到输入比例每秒计算一次，变化时通知客户端
+    private final long tickIntervalNanos;
+    private final int delayPeriodFrames; // 统计周期（帧）
+    private final int[] periodInputs = new int[slots.length]; // 本周期各玩家的输入数
+    private final int[] periodLateInputs = new int[slots.length]; // 本周期各玩家的迟到输入数
+    private int lateInputs; // 房间线程统计周期内的迟到输入数
+    private int inputDelay = MIN_INPUT_DELAY; // 当前推荐的输入延迟（帧）
+    private int lowerDelayPeriods; // 推荐值连续低于当前值的周期数
+    private final boolean[] inputDelayPending = new boolean[slots.length]; // 落后期间错过了输入延迟建议，补发后发送
+    private final int[] receivedFrames = new int[slots.length]; // 各玩家已收到的最大帧号（原始帧号），批量输入中不超过它的帧视为重复
     private int currentFrame = 0;
     private boolean gameStarted = false;
     private final ObjectMapper objectMapper = ObjectMapperProvider.getInstance();
     
     // 添加房间销毁相关字段
     private long emptySince = -1; // 房间变空的时间点
-    private static final long DESTROY_DELAY = 30 * 1000; // 30秒后销毁
+    public static final long DESTROY_DELAY = 30 * 1000; // 30秒后销毁
 
-    public Room(String id) {
+    /**
+     * @param id 房间ID
+     * @param tickRate 帧率，用于计算慢连接补发需要保留的历史帧数
+     * @param redundantFrames 每条帧同步附带之前多少帧的输入，不超过保留的历史帧数，0表示关闭
+     */
+    public Room(String id, int tickRate, int redundantFrames) {
         this.id = id;
+        this.catchUpFrames = Math.max(1, (int) ((long) SLOW_CONSUMER_TIMEOUT_MS * tickRate / 1000) + 1);
+        this.frameInputs = new FrameInputRing(Math.max(HISTORY_FRAMES, catchUpFrames) + 1 + MAX_FUTURE_FRAMES, slots.length);
+        this.emptyRunMaxFrames = Math.max(1, EMPTY_RUN_MAX_MILLIS * tickRate / 1000);
+        this.tickIntervalNanos = 1_000_000_000L / tickRate;
+        this.delayPeriodFrames = Math.max(1, tickRate);
+        this.redundantFrames = Math.max(0, Math.min(redundantFrames, HISTORY_FRAMES));
+        this.prevFrames = new int[this.redundantFrames];
+        this.prevCounts = new int[this.redundantFrames];
+        this.prevCampIds = new int[this.redundantFrames][slots.length];
+        this.prevInputs = new byte[this.redundantFrames][slots.length][];
+        Arrays.fill(lagFrom, -1);
+        Arrays.fill(receivedFrames, -1);
     }
 
     public String getId() {
@@ -44,43 +154,109 @@ public class Room {
      * 添加玩家
      */
     public void addPlayer(Player  player) {
-        players.add(player);
-        // 更新缓存
-        channelIdToCampIdCache.put(player.getChannelId(), String.valueOf(player.getCamp().getId()));
+        int slot = slotCount++;
+        player.setSlot(slot);
+        slots[slot] = player;
+        playerCount++;
+        // 记录广播用的频道，断线或离开时清除
+        channels[slot] = WebSocketSessionManager.getInstance().getChannel(player.getSessionId());
+        int features = channels[slot] != null ? ClientFeature.get(channels[slot]) : 0;
+        if (!INPUT_RELAY) {
+            features &= ~RELAY;
+        }
+        if (redundantFrames == 0 || (features & RELAY) != 0) {
+            // 输入转发的频道不接收完整的帧同步，冗余帧对其无效
+            features &= ~REDUNDANT;
+        }
+        if ((features & REDUNDANT) != 0) {
+            // 冗余帧的频道逐帧接收，丢失的帧可以从后续帧同步中恢复
+            features &= ~RUNS;
+            redundantSlots++;
+        }
+        slotFeatures[slot] = features;
+        if ((features & RELAY) != 0) {
+            relaySlots++;
+        }
         emptySince = -1; // 有玩家加入，重置空房间计时
     }
     
     /**
      * 移除玩家
      */
-    public void removePlayer(String channelId) {
-        players.removeIf(player -> player.getChannelId().equals(channelId));
-        // 从缓存中移除
-        channelIdToCampIdCache.remove(channelId);
-        readyPlayers.remove(channelId);
+    public void removePlayer(int sessionId, int slot) {
+        Player player = playerAt(slot, sessionId);
+        if (player != null) {
+            slots[slot] = null;
+            if (flushPending && channels[slot] != null) {
+                // 离开的玩家不再参与本轮刷新，先发出已写入的广播
+                channels[slot].flush();
+            }
+            channels[slot] = null;
+            lagFrom[slot] = -1;
+            inputDelayPending[slot] = false;
+            clearFeatures(slot);
+            playerCount--;
+            if (readySlots[slot]) {
+                readySlots[slot] = false;
+                readyCount--;
+            }
+        }
         
         // 检查是否所有玩家都已离开，如果是，则开始计时
         checkEmptyAndStartTimer();
     }
 
+    /**
+     * 玩家离开或断线后不再接收帧同步，清除其声明的功能，不再为其转发输入或编码冗余帧
+     */
+    private void clearFeatures(int slot) {
+        if ((slotFeatures[slot] & RELAY) != 0) {
+            relaySlots--;
+        }
+        if ((slotFeatures[slot] & REDUNDANT) != 0) {
+            redundantSlots--;
+        }
+        slotFeatures[slot] = 0;
+    }
+
     /**
      * 标记玩家准备就绪
      */
-    public void markPlayerReady(String channelId) {
-        if (readyPlayers.contains(channelId)) {
-            logger.warn("玩家 {} 已准备就绪", channelId);
+    public void markPlayerReady(int sessionId, int slot) {
+        Player player = playerAt(slot, sessionId);
+        if (player == null) {
+            logger.warn("玩家 {} 不在房间 {} 中", sessionId, id);
+            return;
+        }
+        if (readySlots[player.getSlot()]) {
+            logger.warn("玩家 {} 已准备就绪", sessionId);
             return;
         }
 
-        logger.info("玩家 {} 准备就绪", channelId);
-        readyPlayers.add(channelId);
+        logger.info("玩家 {} 准备就绪", sessionId);
+        readySlots[player.getSlot()] = true;
+        readyCount++;
         
         // 检查是否所有玩家都已准备就绪
-        if (readyPlayers.size() == players.size() && !gameStarted) {
+        if (readyCount == playerCount && !gameStarted) {
             startGame();
         }
     }
 
+    /**
+     * 根据槽位获取玩家，并校验会话句柄
+     * @param slot 槽位下标
+     * @param sessionId 会话句柄
+     * @return 玩家，槽位为空或已被其他会话占用时返回null
+     */
+    private Player playerAt(int slot, int sessionId) {
+        if (slot < 0 || slot >= slotCount) {
+            return null;
+        }
+        Player player = slots[slot];
+        return player != null && player.getSessionId() == sessionId ? player : null;
+    }
+
     private void startGame() {
         gameStarted = true;
         emptySince = -1; // 开始游戏，重置空房间计时
@@ -89,17 +265,23 @@ public class Room {
             logger.info("房间 {} 游戏开始", id);
             ObjectNode response = objectMapper.createObjectNode();
             response.put("type", "gameStart");
+            // 初始的输入延迟建议，之后变化时发送inputDelay消息
+            updateInputDelay(true);
+            response.put("inputDelay", inputDelay);
             
-            String message = objectMapper.writeValueAsString(response);
-            
-            // 广播游戏开始消息
-            for (Player player : players) {
-                if (player.isChannelValid()) {
-                    WebSocketSessionManager.getInstance().sendMessage(player.getChannelId(), message);
-                } else {
+            for (int i = 0; i < slotCount; i++) {
+                Player player = slots[i];
+                if (player != null && !player.isChannelValid()) {
                     logger.warn("玩家 {} 已断线", player);
                 }
             }
+
+            // 广播游戏开始消息，落后的频道暂停写入
+            for (int i = 0; i < slotCount; i++) {
+                selected[i] = lagFrom[i] < 0 ? channels[i] : null;
+            }
+            WebSocketSessionManager.getInstance().broadcastMessage(selected, response);
+            flushPending = true;
         } catch (Exception e) {
             logger.error("开始游戏时发生错误", e);
         }
@@ -108,46 +290,148 @@ public class Room {
     /**
      * 添加帧输入
      *
-     * @param channelId
-     * @param data
+     * @param input
      */
-    public void addFrameInput(String channelId, JsonNode data) {
+    public void addFrameInput(FrameInputMessage input) {
+        int sessionId = input.getSessionId();
         try {
-            int frame = data.get("frame").asInt();
+            Player player = playerAt(input.getSlot(), sessionId);
+            if (player == null) {
+                logger.warn("玩家 {} 不在房间 {} 中，忽略帧输入", sessionId, id);
+                return;
+            }
+
+            int frame = input.getFrame();
+            int slot = player.getSlot();
+            periodInputs[slot]++;
+            if (frame > receivedFrames[slot]) {
+                receivedFrames[slot] = frame;
+            }
 
             if (frame < currentFrame) {
+                // 迟到的输入归入当前帧，计入迟到统计
+                periodLateInputs[slot]++;
+                lateInputs++;
                 frame = currentFrame;
+            } else if (frame - currentFrame > MAX_FUTURE_FRAMES) {
+                logger.warn("[{}] 帧输入超出窗口，丢弃。帧: {}, 当前帧：{}", sessionId, frame, currentFrame);
+                return;
             }
 
-            logger.info("[{}] 收到帧输入帧: {}, 当前帧：{}, 数据: {}", channelId, frame, currentFrame, data.toString());
-
-            JsonNode inputs = data.get("data");
+            // 每条输入都会经过这里，只在调试时渲染输入内容
+            if (logger.isDebugEnabled()) {
+                logger.debug("[{}] 收到帧输入帧: {}, 当前帧：{}, 数据: {}", sessionId, frame, currentFrame, input);
+            }
 
-            Map<String, JsonNode> frameData = frameInputs.computeIfAbsent(frame, k -> new HashMap<>());
+            storeInput(player, frame, input.getInputs(), frame != input.getFrame());
+        } catch (Exception e) {
+            logger.error("处理帧输入时发生错误", e);
+        }
+    }
 
-            ObjectNode playerInputs = objectMapper.createObjectNode();
+    /**
+     * 添加批量帧输入
+     * <p>
+     * 消息中的帧已按帧号升序去重，逐帧按单条输入的规则处理，另外：
+     * 不超过该玩家已收到的最大帧号的帧视为重复（客户端补发），直接跳过，迟到后归入当前帧的帧也按原始帧号记录；
+     * 未收到过的迟到帧合并为一条输入追加到当前帧，不覆盖当前帧已有的输入；超出窗口的帧及其后各帧被丢弃。
+     *
+     * @param batch
+     */
+    public void addFrameInputBatch(FrameInputBatchMessage batch) {
+        int sessionId = batch.getSessionId();
+        try {
+            Player player = playerAt(batch.getSlot(), sessionId);
+            if (player == null) {
+                logger.warn("玩家 {} 不在房间 {} 中，忽略批量帧输入", sessionId, id);
+                return;
+            }
 
-            // 从缓存中获取campId
-            String campId = channelIdToCampIdCache.get(channelId);
-            playerInputs.put("campId", campId);
-            playerInputs.set("inputs", inputs);
+            int slot = player.getSlot();
+            int count = batch.getCount();
+            if (logger.isDebugEnabled()) {
+                logger.debug("[{}] 收到批量帧输入 {} 帧, 当前帧：{}, 数据: {}", sessionId, count, currentFrame, batch);
+            }
 
-            frameData.put(campId, playerInputs);
+            byte[] late = null;
+            for (int i = 0; i < count; i++) {
+                int frame = batch.getFrame(i);
+                byte[] inputs = batch.getInputs(i);
+                if (frame <= receivedFrames[slot]) {
+                    continue;
+                }
+                if (frame - currentFrame > MAX_FUTURE_FRAMES) {
+                    logger.warn("[{}] 批量帧输入超出窗口，丢弃其余 {} 帧。帧: {}, 当前帧：{}", sessionId, count - i, frame, currentFrame);
+                    break;
+                }
+                receivedFrames[slot] = frame;
+                periodInputs[slot]++;
+                if (frame < currentFrame) {
+                    periodLateInputs[slot]++;
+                    lateInputs++;
+                    late = late == null ? inputs : FrameInputMessage.concat(late, inputs);
+                    continue;
+                }
+                boolean clamped = false;
+                if (late != null) {
+                    if (frame == currentFrame) {
+                        inputs = FrameInputMessage.concat(late, inputs);
+                        clamped = true;
+                    } else {
+                        storeLateInputs(player, late);
+                    }
+                    late = null;
+                }
+                byte[] existing = frame == currentFrame ? frameInputs.get(frame, slot) : null;
+                if (existing != null) {
+                    // 当前帧已有的输入只可能是之前归入当前帧的迟到输入，按到达顺序追加
+                    inputs = FrameInputMessage.concat(existing, inputs);
+                    clamped = true;
+                }
+                // 迟到的输入移到了当前帧，需要转发给发送者
+                storeInput(player, frame, inputs, clamped);
+            }
+            if (late != null) {
+                storeLateInputs(player, late);
+            }
         } catch (Exception e) {
-            logger.error("处理帧输入时发生错误", e);
+            logger.error("处理批量帧输入时发生错误", e);
+        }
+    }
+
+    /**
+     * 把批量输入中合并后的迟到输入追加到玩家当前帧已有的输入之后，不覆盖之前提交的输入
+     */
+    private void storeLateInputs(Player player, byte[] late) {
+        byte[] existing = frameInputs.get(currentFrame, player.getSlot());
+        storeInput(player, currentFrame, existing != null ? FrameInputMessage.concat(existing, late) : late, true);
+    }
+
+    /**
+     * 写入玩家一帧的输入，开启输入转发时立即转发
+     * @param clamped 输入是否被归入了当前帧，此时也转发给发送者，使其按实际帧号处理
+     */
+    private void storeInput(Player player, int frame, byte[] inputs, boolean clamped) {
+        frameInputs.put(frame, player.getSlot(), inputs);
+        if (relaySlots > 0) {
+            relayInput(frame, player, inputs, clamped);
         }
     }
 
     /**
      * 处理断线
-     * @param channelId
+     * @param sessionId
+     * @param slot
      */
-    public void handleDisconnect(String channelId) {
+    public void handleDisconnect(int sessionId, int slot) {
         // 修改ChannelValid
-        for (Player player : players) {
-            if (player.getChannelId().equals(channelId)) {
-                player.setChannelValid(false);
-            }
+        Player player = playerAt(slot, sessionId);
+        if (player != null) {
+            player.setChannelValid(false);
+            channels[slot] = null;
+            lagFrom[slot] = -1;
+            inputDelayPending[slot] = false;
+            clearFeatures(slot);
         }
         
         // 检查是否所有玩家都已断线，如果是，则开始计时
@@ -166,69 +450,498 @@ public class Room {
         processFrameSync();
         
         currentFrame++;
+        if (currentFrame % delayPeriodFrames == 0) {
+            updateInputDelay(false);
+        }
+    }
+
+    /**
+     * 计算推荐的输入延迟（帧），变化时通知房间内的玩家
+     * <p>
+     * 客户端收到第N帧后为第N+d帧提交输入，输入在一个往返时延后到达服务器，
+     * 需要在第N+d帧推进之前到达，因此d至少为 (srtt + 4 * rttvar) / 帧间隔（与TCP重传超时的计算相同），取所有玩家的最大值；
+     * 某个玩家本周期的迟到输入超过LATE_INPUT_RATIO时至少加一帧。增大立即生效，减小需连续DELAY_DECREASE_PERIODS个周期。
+     * @param initial 是否为游戏开始时的初始值，随gameStart发送，不单独通知
+     */
+    private void updateInputDelay(boolean initial) {
+        long worstNanos = 0;
+        boolean late = false;
+        for (int i = 0; i < slotCount; i++) {
+            int inputs = periodInputs[i];
+            int lates = periodLateInputs[i];
+            periodInputs[i] = 0;
+            periodLateInputs[i] = 0;
+            Channel channel = channels[i];
+            RttEstimator rtt = channel != null ? RttEstimator.of(channel) : null;
+            if (slots[i] == null || rtt == null) {
+                continue;
+            }
+            if (rtt.getSamples() > 0) {
+                long playerNanos = Math.min(MAX_PLAYER_RTT_NANOS, rtt.getSrttNanos() + 4 * rtt.getRttVarNanos());
+                worstNanos = Math.max(worstNanos, playerNanos);
+            }
+            if (lates > 0 && lates > inputs * LATE_INPUT_RATIO) {
+                late = true;
+                logger.info("房间 {} 玩家 {} 迟到输入 {}/{}，往返时延 {}ms，抖动 {}ms，输入延迟 {} 帧", id, slots[i], lates, inputs,
+                        rtt.getSrttNanos() / 1_000_000, rtt.getRttVarNanos() / 1_000_000, inputDelay);
+            }
+        }
+
+        int target = (int) ((worstNanos + tickIntervalNanos - 1) / tickIntervalNanos);
+        if (late) {
+            target = Math.max(target, inputDelay + 1);
+        }
+        target = Math.max(MIN_INPUT_DELAY, Math.min(MAX_INPUT_DELAY, target));
+        if (initial) {
+            inputDelay = target;
+            return;
+        }
+        if (target > inputDelay || (target < inputDelay && ++lowerDelayPeriods >= DELAY_DECREASE_PERIODS)) {
+            logger.info("房间 {} 推荐输入延迟 {} -> {} 帧", id, inputDelay, target);
+            inputDelay = target;
+            lowerDelayPeriods = 0;
+            broadcastInputDelay();
+        } else if (target >= inputDelay) {
+            lowerDelayPeriods = 0;
+        }
+    }
+
+    /**
+     * 通知玩家新的推荐输入延迟，附带各玩家的往返时延和抖动（毫秒）
+     * <p>
+     * 与帧同步相同，只发给本帧正常广播的频道，落后的频道在补发后再收到最新的建议
+     */
+    private void broadcastInputDelay() {
+        Channel[] targets = select(0, 0);
+        for (int i = 0; i < slotCount; i++) {
+            if (channels[i] != null && targets[i] == null) {
+                inputDelayPending[i] = true;
+            }
+        }
+        sendInputDelay(targets);
+    }
+
+    private void sendInputDelay(Channel[] targets) {
+        try {
+            ObjectNode message = objectMapper.createObjectNode();
+            message.put("type", "inputDelay");
+            message.put("frames", inputDelay);
+            ArrayNode players = message.putArray("players");
+            for (int i = 0; i < slotCount; i++) {
+                Channel channel = channels[i];
+                RttEstimator rtt = channel != null ? RttEstimator.of(channel) : null;
+                if (slots[i] != null && rtt != null && rtt.getSamples() > 0) {
+                    players.addObject()
+                            .put("campId", slots[i].getCamp().getId())
+                            .put("rtt", rtt.getSrttNanos() / 1_000_000)
+                            .put("jitter", rtt.getRttVarNanos() / 1_000_000);
+                }
+            }
+            WebSocketSessionManager.getInstance().broadcastMessage(targets, message);
+            flushPending = true;
+        } catch (Exception e) {
+            logger.error("发送输入延迟建议时发生错误", e);
+        }
     }
 
     private void processFrameSync() {
-        // 获取当前帧的数据
-        Map<String, JsonNode> currentFrameData = frameInputs.computeIfAbsent(currentFrame, k -> new HashMap<>());
-        
-        // 检查是否有所有玩家的输入数据，没有的补充空输入
-        for (Player player : players) {
-            String campId = String.valueOf(player.getCamp().getId());
-            if (!currentFrameData.containsKey(campId)) {
-                // 添加空输入
-                ObjectNode emptyInput = objectMapper.createObjectNode();
-                emptyInput.put("campId", campId);
-                emptyInput.set("inputs", objectMapper.createArrayNode());
-                currentFrameData.put(campId, emptyInput);
+        int count = collectFrame(currentFrame);
+        boolean empty = syncEmpty;
+        boolean catchUp = prepareSyncChannels();
+
+        // 广播帧同步数据，旧帧数据由环形缓冲区自然覆盖
+        broadcastFrameSync(currentFrame, count, empty);
+        if (catchUp) {
+            sendCatchUps();
+        }
+    }
+
+    /**
+     * 收集一帧各玩家的输入到syncCampIds/syncInputs，没有输入的补充空输入
+     * @param frame 帧号，必须仍在环形缓冲区中
+     * @return 阵营数量
+     */
+    private int collectFrame(int frame) {
+        int count = 0;
+        boolean empty = true;
+        for (int i = 0; i < slotCount; i++) {
+            Player player = slots[i];
+            if (player == null) {
+                continue;
+            }
+            byte[] inputs = frameInputs.get(frame, i);
+            if (inputs == null) {
+                inputs = FrameInputMessage.EMPTY_INPUTS;
+            } else if (!FrameInputMessage.isEmpty(inputs)) {
+                empty = false;
             }
+            syncCampIds[count] = player.getCamp().getId();
+            syncInputs[count] = inputs;
+            count++;
         }
-        
-        // 广播帧同步数据
-        broadcastFrameSync(currentFrame, currentFrameData);
-        
-        // 清理旧帧数据
-        if (currentFrame > 10) {
-            frameInputs.remove(currentFrame - 10); // 保留最近10帧数据
+        syncEmpty = empty;
+        return count;
+    }
+
+    /**
+     * 按频道的可写状态确定本帧的广播对象
+     * <p>
+     * 写积压超过高水位的频道不再写入帧同步，从当前帧开始记为落后；
+     * 持续不可写超过超时时间或落后超过可补发的帧数时踢出。
+     * @return 是否有恢复可写、需要补发的频道
+     */
+    private boolean prepareSyncChannels() {
+        WebSocketSessionManager sessionManager = WebSocketSessionManager.getInstance();
+        long now = System.nanoTime();
+        boolean catchUp = false;
+        hasRunChannels = false;
+        for (int i = 0; i < slotCount; i++) {
+            Channel channel = channels[i];
+            syncChannels[i] = null;
+            if (channel == null || !channel.isActive()) {
+                // 已关闭的频道不可写，等待断线处理
+                continue;
+            }
+            long queued = sessionManager.getQueuedBytes(channel);
+            if (queued > peakQueuedBytes) {
+                peakQueuedBytes = queued;
+            }
+
+            if (lagFrom[i] < 0) {
+                if (channel.isWritable()) {
+                    syncChannels[i] = channel;
+                    if ((slotFeatures[i] & RUNS) != 0) {
+                        hasRunChannels = true;
+                    }
+                } else {
+                    // 尚未发送的空帧也算落下的帧
+                    lagFrom[i] = (slotFeatures[i] & RUNS) != 0 && emptyRunStart >= 0 ? emptyRunStart : currentFrame;
+                    unwritableSince[i] = now;
+                    logger.info("房间 {} 玩家 {} 写积压 {}B 超过高水位，暂停帧同步", id, slots[i], queued);
+                }
+            } else if (currentFrame - lagFrom[i] >= catchUpFrames
+                    || (!channel.isWritable() && now - unwritableSince[i] > SLOW_CONSUMER_TIMEOUT_MS * 1_000_000L)) {
+                evict(i, queued);
+            } else if (channel.isWritable()) {
+                catchUp = true;
+            }
         }
+        return catchUp;
     }
-    
-    private void broadcastFrameSync(int frame, Map<String, JsonNode> frameData) {
+
+    /**
+     * 踢出慢连接，关闭频道后由断线流程处理
+     */
+    private void evict(int slot, long queued) {
+        Channel channel = channels[slot];
+        logger.warn("房间 {} 玩家 {} 持续不可写 {}ms，落后 {} 帧，写积压 {}B，断开连接", id, slots[slot],
+                (System.nanoTime() - unwritableSince[slot]) / 1_000_000, currentFrame - lagFrom[slot], queued);
+        evictions++;
+        channels[slot] = null;
+        lagFrom[slot] = -1;
+        channel.close();
+    }
+
+    /**
+     * 向恢复可写的频道补发落下的帧（含当前帧），所有帧合并为一条消息
+     */
+    private void sendCatchUps() {
+        for (int i = 0; i < slotCount; i++) {
+            Channel channel = channels[i];
+            int from = lagFrom[i];
+            if (channel == null || from < 0 || syncChannels[i] != null || !channel.isWritable()) {
+                continue;
+            }
+            lagFrom[i] = -1;
+            // 尚未发送的空帧之后随空帧合并消息发出，补发到它之前为止
+            int to = (slotFeatures[i] & RUNS) != 0 && emptyRunStart >= 0 ? emptyRunStart - 1 : currentFrame;
+            if (to >= from) {
+                sendCatchUp(channel, i, from, to);
+            }
+            if ((slotFeatures[i] & RELAY) != 0) {
+                // 落后期间没有转发的后续帧输入
+                relayPendingInputs(i, currentFrame + 1);
+            }
+            if (inputDelayPending[i]) {
+                inputDelayPending[i] = false;
+                Arrays.fill(selected, null);
+                selected[i] = channel;
+                sendInputDelay(selected);
+            }
+        }
+    }
+
+    /**
+     * 向一个频道补发from到to（含）的帧，所有帧合并为一条消息
+     */
+    private void sendCatchUp(Channel channel, int slot, int from, int to) {
+        WebSocketSessionManager sessionManager = WebSocketSessionManager.getInstance();
+        int frames = to - from + 1;
         try {
-            boolean empty = true;
-            ObjectNode response = objectMapper.createObjectNode();
-            response.put("type", "frameSync");
-            response.put("frame", frame);
-            
-            ArrayNode dataArray = objectMapper.createArrayNode();
-            for (JsonNode input : frameData.values()) {
-                dataArray.add(input);
-                if (!input.get("inputs").isEmpty()) {
-                    empty = false;
+            if (WireProtocol.of(channel) == WireProtocol.BINARY) {
+                ByteBuf out = BinaryCodec.beginFrameSyncBatch(frames);
+                for (int frame = from; frame <= to; frame++) {
+                    int count = collectFrame(frame);
+                    BinaryCodec.appendFrameSyncBatch(out, frame, syncCampIds, syncInputs, count);
+                }
+                sessionManager.writeBinary(channel, out);
+            } else {
+                ByteBuf out = JsonCodec.beginFrameSyncBatch();
+                for (int frame = from; frame <= to; frame++) {
+                    int count = collectFrame(frame);
+                    JsonCodec.appendFrameSyncBatch(out, frame == from, frame, syncCampIds, syncInputs, count);
                 }
+                JsonCodec.endFrameSyncBatch(out);
+                sessionManager.writeText(channel, out);
             }
-            
-            response.set("data", dataArray);
-            
-            String message = objectMapper.writeValueAsString(response);
-            
-            // 发送给所有玩家
-            for (Player player : players) {
-                if (player.isChannelValid()) {
-                    WebSocketSessionManager.getInstance().sendMessage(player.getChannelId(), message);
+            flushPending = true;
+            logger.info("房间 {} 玩家 {} 恢复可写，补发帧 {}~{}", id, slots[slot], from, to);
+        } catch (Exception e) {
+            logger.error("补发帧同步数据时发生错误", e);
+        }
+    }
+
+    private void broadcastFrameSync(int frame, int count, boolean empty) {
+        try {
+            // 发送给所有在线玩家，每种协议只编码一次；声明了输入转发的频道已收到各玩家的输入，只发送封帧确认
+            WebSocketSessionManager sessionManager = WebSocketSessionManager.getInstance();
+            int skip = 0; // 不接收本帧的功能
+            if (!hasRunChannels) {
+                // 没有接收空帧合并的频道，未发送的空帧已计入落后频道的补发范围
+                emptyRunStart = -1;
+            } else if (empty) {
+                // 空帧只逐帧发给未声明空帧合并的频道，其余积累到上限后合并发送
+                skip = RUNS;
+                if (emptyRunStart < 0) {
+                    emptyRunStart = frame;
                 }
+                if (frame - emptyRunStart + 1 >= emptyRunMaxFrames) {
+                    broadcastEmptyRun(frame);
+                }
+            } else if (emptyRunStart >= 0) {
+                // 非空帧之前先发出积累的空帧，保证帧按顺序到达
+                broadcastEmptyRun(frame - 1);
             }
 
-            if (!empty) {
-                logger.info("房间 {} 广播帧 {} 在线人数({}) 数据：{}", id, frame, getOnlinePlayerCount(), response);
+            Channel[] targets = select(0, skip | RELAY | REDUNDANT);
+            if (sessionManager.hasProtocol(targets, WireProtocol.JSON)) {
+                ByteBuf json = JsonCodec.encodeFrameSync(frame, syncCampIds, syncInputs, count);
+                if (!empty && logger.isDebugEnabled()) {
+                    logger.debug("房间 {} 广播帧 {} 在线人数({}) 数据：{}", id, frame, getOnlinePlayerCount(), json.toString(StandardCharsets.UTF_8));
+                }
+                sessionManager.broadcastText(targets, json, WireProtocol.JSON);
+            } else if (!empty && logger.isDebugEnabled()) {
+                logger.debug("房间 {} 广播帧 {} 在线人数({})", id, frame, getOnlinePlayerCount());
             }
+            if (sessionManager.hasProtocol(targets, WireProtocol.BINARY)) {
+                sessionManager.broadcastBinary(targets, BinaryCodec.encodeFrameSync(frame, syncCampIds, syncInputs, count), WireProtocol.BINARY);
+            }
+
+            if (redundantSlots > 0) {
+                broadcastRedundantFrameSync(select(REDUNDANT, skip), frame, count);
+            }
+
+            if (relaySlots > 0) {
+                targets = select(RELAY, skip);
+                if (sessionManager.hasProtocol(targets, WireProtocol.JSON)) {
+                    sessionManager.broadcastText(targets, JsonCodec.encodeFrameSealed(frame), WireProtocol.JSON);
+                }
+                if (sessionManager.hasProtocol(targets, WireProtocol.BINARY)) {
+                    sessionManager.broadcastBinary(targets, BinaryCodec.encodeFrameSealed(frame), WireProtocol.BINARY);
+                }
+            }
+            flushPending = true;
         } catch (Exception e) {
             logger.error("广播帧同步数据时发生错误", e);
         }
     }
 
+    /**
+     * 向声明了冗余帧的频道发送附带之前redundantFrames帧非空输入的帧同步，
+     * 历史帧在封帧后不再改变，直接从帧输入环形缓冲区读取
+     * @param count 本帧的阵营数量
+     */
+    private void broadcastRedundantFrameSync(Channel[] targets, int frame, int count) {
+        WebSocketSessionManager sessionManager = WebSocketSessionManager.getInstance();
+        boolean json = sessionManager.hasProtocol(targets, WireProtocol.JSON);
+        boolean binary = sessionManager.hasProtocol(targets, WireProtocol.BINARY);
+        if (!json && !binary) {
+            return;
+        }
+        int prevFrom = Math.max(0, frame - redundantFrames);
+        int size = collectPreviousFrames(prevFrom, frame);
+        if (json) {
+            ByteBuf out = JsonCodec.beginRedundantFrameSync(frame, syncCampIds, syncInputs, count, prevFrom);
+            for (int i = 0; i < size; i++) {
+                JsonCodec.appendPreviousFrame(out, i == 0, prevFrames[i], prevCampIds[i], prevInputs[i], prevCounts[i]);
+            }
+            JsonCodec.endRedundantFrameSync(out);
+            sessionManager.broadcastText(targets, out, WireProtocol.JSON);
+        }
+        if (binary) {
+            ByteBuf out = BinaryCodec.beginRedundantFrameSync(frame, syncCampIds, syncInputs, count, frame - prevFrom, size);
+            for (int i = 0; i < size; i++) {
+                BinaryCodec.appendPreviousFrame(out, prevFrames[i], prevCampIds[i], prevInputs[i], prevCounts[i]);
+            }
+            sessionManager.broadcastBinary(targets, out, WireProtocol.BINARY);
+        }
+    }
+
+    /**
+     * 收集from到to（不含）之间有输入的帧，每帧只收集有输入的阵营，玩家范围与collectFrame相同
+     * @return 有输入的帧数
+     */
+    private int collectPreviousFrames(int from, int to) {
+        int size = 0;
+        for (int frame = from; frame < to; frame++) {
+            int count = 0;
+            for (int i = 0; i < slotCount; i++) {
+                Player player = slots[i];
+                byte[] inputs = player != null ? frameInputs.get(frame, i) : null;
+                if (inputs != null && !FrameInputMessage.isEmpty(inputs)) {
+                    prevCampIds[size][count] = player.getCamp().getId();
+                    prevInputs[size][count] = inputs;
+                    count++;
+                }
+            }
+            if (count > 0) {
+                prevFrames[size] = frame;
+                prevCounts[size] = count;
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 从本帧正常广播的频道中筛选声明了require中全部功能、且没有声明exclude中任何功能的频道
+     * @return 筛选结果，复用同一数组，下次筛选前有效
+     */
+    private Channel[] select(int require, int exclude) {
+        for (int i = 0; i < slotCount; i++) {
+            int features = slotFeatures[i];
+            selected[i] = (features & require) == require && (features & exclude) == 0 ? syncChannels[i] : null;
+        }
+        return selected;
+    }
+
+    /**
+     * 向声明了空帧合并的频道发送从emptyRunStart到to（含）的空帧
+     */
+    private void broadcastEmptyRun(int to) {
+        WebSocketSessionManager sessionManager = WebSocketSessionManager.getInstance();
+        Channel[] targets = select(RUNS, 0);
+        if (sessionManager.hasProtocol(targets, WireProtocol.JSON)) {
+            sessionManager.broadcastText(targets, JsonCodec.encodeEmptyFrames(emptyRunStart, to), WireProtocol.JSON);
+        }
+        if (sessionManager.hasProtocol(targets, WireProtocol.BINARY)) {
+            sessionManager.broadcastBinary(targets, BinaryCodec.encodeEmptyFrames(emptyRunStart, to), WireProtocol.BINARY);
+        }
+        emptyRunStart = -1;
+        flushPending = true;
+    }
+
+    /**
+     * 输入转发：把刚写入的输入立即发给其他声明了输入转发的玩家，帧号为实际写入的帧
+     * <p>
+     * 同一玩家同一帧的多次输入逐条转发，以最后一条为准，与帧输入环形缓冲区一致；
+     * 落后中的频道暂不转发，恢复后随补发一起发送，见relayPendingInputs。
+     * @param echo 是否也发给发送者
+     */
+    private void relayInput(int frame, Player player, byte[] inputs, boolean echo) {
+        int sender = player.getSlot();
+        for (int i = 0; i < slotCount; i++) {
+            selected[i] = (slotFeatures[i] & RELAY) != 0 && lagFrom[i] < 0 && (i != sender || echo) ? channels[i] : null;
+        }
+        sendRelayInput(selected, frame, player.getCamp().getId(), inputs);
+    }
+
+    /**
+     * 向恢复的频道转发当前帧之后其他玩家已提交的输入
+     * @param slot 恢复的玩家槽位
+     * @param from 起始帧号
+     */
+    private void relayPendingInputs(int slot, int from) {
+        Arrays.fill(selected, null);
+        selected[slot] = channels[slot];
+        for (int frame = from; frame <= currentFrame + MAX_FUTURE_FRAMES; frame++) {
+            for (int i = 0; i < slotCount; i++) {
+                Player player = slots[i];
+                byte[] inputs = i != slot && player != null ? frameInputs.get(frame, i) : null;
+                if (inputs != null) {
+                    sendRelayInput(selected, frame, player.getCamp().getId(), inputs);
+                }
+            }
+        }
+    }
+
+    private void sendRelayInput(Channel[] targets, int frame, int campId, byte[] inputs) {
+        try {
+            WebSocketSessionManager sessionManager = WebSocketSessionManager.getInstance();
+            if (sessionManager.hasProtocol(targets, WireProtocol.JSON)) {
+                sessionManager.broadcastText(targets, JsonCodec.encodeRelayInput(frame, campId, inputs), WireProtocol.JSON);
+            }
+            if (sessionManager.hasProtocol(targets, WireProtocol.BINARY)) {
+                sessionManager.broadcastBinary(targets, BinaryCodec.encodeRelayInput(frame, campId, inputs), WireProtocol.BINARY);
+            }
+            flushPending = true;
+        } catch (Exception e) {
+            logger.error("转发帧输入时发生错误", e);
+        }
+    }
+
+    /**
+     * 是否有玩家声明了输入转发，此时帧输入需要立即处理，不等到下一帧
+     */
+    public boolean hasRelaySlots() {
+        return relaySlots > 0;
+    }
+
+    /**
+     * 把本轮处理中写入的广播一次性刷新到各频道，没有写入时不做任何事
+     */
+    public void flushWrites() {
+        if (flushPending) {
+            flushPending = false;
+            WebSocketSessionManager.getInstance().flush(channels);
+        }
+    }
+
+    /**
+     * 取出统计周期内单个频道的最大写积压（字节）并开始新的周期
+     */
+    public long takePeakQueuedBytes() {
+        long peak = peakQueuedBytes;
+        peakQueuedBytes = 0;
+        return peak;
+    }
+
+    /**
+     * 取出统计周期内踢出的慢连接数并开始新的周期
+     */
+    public int takeEvictions() {
+        int count = evictions;
+        evictions = 0;
+        return count;
+    }
+
+    /**
+     * 取出统计周期内的迟到输入数并开始新的周期
+     */
+    public int takeLateInputs() {
+        int count = lateInputs;
+        lateInputs = 0;
+        return count;
+    }
+
     public List<Player> getPlayers() {
-        return new ArrayList<>(players);
+        List<Player> players = new ArrayList<>(playerCount);
+        for (int i = 0; i < slotCount; i++) {
+            if (slots[i] != null) {
+                players.add(slots[i]);
+            }
+        }
+        return players;
     }
 
     /**
@@ -236,8 +949,9 @@ public class Room {
      */
     public int getOnlinePlayerCount() {
         int count = 0;
-        for (Player player : players) {
-            if (player.isChannelValid()) {
+        for (int i = 0; i < slotCount; i++) {
+            Player player = slots[i];
+            if (player != null && player.isChannelValid()) {
                 count++;
             }
         }
@@ -245,9 +959,31 @@ public class Room {
     }
 
     public int getPlayerCount() {
-        return players.size();
+        return playerCount;
     }
     
+    public int getCurrentFrame() {
+        return currentFrame;
+    }
+
+    /**
+     * 当前帧是否已收到所有在线玩家的输入
+     */
+    public boolean isFrameComplete() {
+        int online = 0;
+        for (int i = 0; i < slotCount; i++) {
+            Player player = slots[i];
+            if (player == null || !player.isChannelValid()) {
+                continue;
+            }
+            if (!frameInputs.contains(currentFrame, i)) {
+                return false;
+            }
+            online++;
+        }
+        return online > 0;
+    }
+
     public boolean isGameStarted() {
         return gameStarted;
     }
@@ -256,13 +992,7 @@ public class Room {
      * 检查房间是否为空并启动计时器
      */
     private void checkEmptyAndStartTimer() {
-        boolean allDisconnected = true;
-        for (Player player : players) {
-            if (player.isChannelValid()) {
-                allDisconnected = false;
-                break;
-            }
-        }
+        boolean allDisconnected = getOnlinePlayerCount() == 0;
         
         if (allDisconnected && emptySince == -1) {
             emptySince = System.currentTimeMillis();
@@ -270,6 +1000,14 @@ public class Room {
         }
     }
     
+    /**
+     * 所有玩家离开或断线的时间点
+     * @return 毫秒时间戳，房间内有在线玩家时返回-1
+     */
+    public long getEmptySince() {
+        return emptySince;
+    }
+
     /**
      * 检查是否应该销毁房间
      * @return true表示应该销毁房间
@@ -1,103 +1,547 @@
 package org.game.ra2.thread;
 
 import org.game.ra2.service.RoomService;
+import org.game.ra2.util.MpscArrayQueue;
+import org.game.ra2.util.ServerConfig;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
  * 房间线程类
+ * <p>
+ * 默认运行在平台线程上，一个线程轮流推进多个房间；
+ * 虚拟线程模式下每个房间独占一个运行在虚拟线程上的RoomThread，房间之间互不阻塞；
+ * EventLoop模式下不创建线程，房间循环作为定时任务运行在Netty的EventLoop上，
+ * 与玩家频道的读写处于同一线程。
  */
-public class RoomThread extends Thread {
+public class RoomThread implements Runnable {
     private static final Logger logger = LogManager.getLogger(RoomThread.class);
+    /**
+     * 两次循环之间的最长等待时间，没有房间时线程一直休眠到有新任务
+     */
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(50);
+    /**
+     * 帧调度统计输出间隔
+     */
+    private static final long STATS_INTERVAL = TimeUnit.SECONDS.toNanos(ServerConfig.getInt("ra2.room.tickStatsIntervalSeconds", 60));
+    /**
+     * 负载统计窗口和平滑系数
+     */
+    private static final long LOAD_WINDOW = TimeUnit.SECONDS.toNanos(1);
+    private static final double LOAD_ALPHA = 0.3;
+    /**
+     * 任务队列容量，任务只由连接断开、房间分配和迁移等内部事件产生。
+     * 平台线程承载多个房间，虚拟线程只承载一个房间，使用较小的容量；EventLoop模式使用EventLoop的任务队列。
+     * 队列满时任务进入无界的溢出队列，不阻塞调用方，因此容量不限制任务总数，有界背压只作用于房间消息（见RoomService）
+     */
+    private static final int TASK_QUEUE_CAPACITY = ServerConfig.getInt("ra2.room.taskQueueCapacity", 16384);
+    private static final int VIRTUAL_TASK_QUEUE_CAPACITY = ServerConfig.getInt("ra2.room.virtualTaskQueueCapacity", 128);
+    private static final Consumer<Runnable> TASK_RUNNER = task -> {
+        try {
+            task.run();
+        } catch (Exception e) {
+            logger.error("执行任务时发生错误", e);
+        }
+    };
     
-    private final LinkedBlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<>();
+    private final String name;
+    private final Thread thread; // EventLoop模式下为null
+    private final boolean virtual; // 虚拟线程模式，只承载一个房间，房间移除后线程结束
+    private final EventLoop eventLoop; // EventLoop模式下房间循环所在的EventLoop
+    private final Runnable loopTask = this::runOnEventLoop;
+    private final Runnable wakeTask = this::wakeOnEventLoop;
+    private ScheduledFuture<?> loopFuture; // EventLoop模式下已安排的下一次循环
+    private long loopDeadline;
+    private boolean loopIdle = true; // EventLoop模式下没有安排房间循环
+    private final MpscArrayQueue<Runnable> taskQueue; // EventLoop模式下为null
+    // 任务队列满时的溢出队列（无界），非空期间新任务也进入溢出队列，保证同一调用方的任务按顺序执行
+    private final Queue<Runnable> overflowTasks = new ConcurrentLinkedQueue<>();
     private volatile boolean running = true;
+    // 以下字段只在本线程中访问
     private Map<String, RoomService> roomServices = new HashMap<>();
+    // 需要推进的房间列表，按下标遍历避免每帧创建迭代器；休眠的房间只在roomServices中
+    private final List<RoomService> roomList = new ArrayList<>();
+    private final TickStats tickStats = new TickStats();
+    private long busyTime; // 当前负载统计窗口内的处理耗时（纳秒）
+    private int peakQueueDepth; // 当前调度统计周期内的最大积压
+    private long droppedMessages; // 上次输出调度统计时各房间累计丢弃的消息数
+    private long loadWindowStart;
+    private long statsDeadline;
+
+    // 负载指标，由本线程更新，供RoomServiceManager读取
+    private volatile double utilization; // 平滑后的忙碌时间比例
+    private volatile int queueDepth; // 任务和房间消息的待处理数量
+    private final AtomicInteger playerCapacity = new AtomicInteger(); // 所有房间的人数上限之和
 
     public RoomThread(String name) {
-        super(name);
+        this(name, false);
+    }
+
+    /**
+     * @param name 线程名称
+     * @param virtual 是否运行在虚拟线程上，需要Java 21及以上版本
+     */
+    public RoomThread(String name, boolean virtual) {
+        this.name = name;
+        this.virtual = virtual;
+        this.eventLoop = null;
+        this.taskQueue = new MpscArrayQueue<>(virtual ? VIRTUAL_TASK_QUEUE_CAPACITY : TASK_QUEUE_CAPACITY);
+        this.thread = virtual ? VirtualThreads.newThread(name, this) : new Thread(this, name);
+    }
+
+    /**
+     * 在Netty的EventLoop上运行房间循环，不创建线程
+     * @param name 名称
+     * @param eventLoop 房间循环所在的EventLoop
+     */
+    public RoomThread(String name, EventLoop eventLoop) {
+        this.name = name;
+        this.virtual = false;
+        this.eventLoop = eventLoop;
+        this.taskQueue = null;
+        this.thread = null;
+        this.statsDeadline = System.nanoTime() + STATS_INTERVAL;
+    }
+
+    public void start() {
+        if (thread != null) {
+            thread.start();
+        } else {
+            logger.info("房间循环 {} 运行在EventLoop上", name);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 当前线程是否为房间循环所在的线程
+     */
+    public boolean inThread() {
+        return eventLoop != null ? eventLoop.inEventLoop() : Thread.currentThread() == thread;
+    }
+
+    /**
+     * EventLoop模式下房间循环所在的EventLoop，其他模式返回null
+     */
+    public EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
     }
     
     public void addRoomService(RoomService roomService) {
-        this.roomServices.put(roomService.getRoomId(), roomService);
+        // 立即计入负载，连续创建的房间在选择线程时能看到彼此
+        playerCapacity.addAndGet(roomService.getRoomType().getMaxPlayers());
+        if (!inThread()) {
+            executeTask(() -> doAddRoomService(roomService));
+        } else {
+            doAddRoomService(roomService);
+        }
+    }
+
+    private void doAddRoomService(RoomService roomService) {
+        RoomService old = this.roomServices.put(roomService.getRoomId(), roomService);
+        if (old != null) {
+            this.roomList.remove(old);
+            playerCapacity.addAndGet(-old.getRoomType().getMaxPlayers());
+        }
+        this.roomList.add(roomService);
+    }
+
+    /**
+     * 休眠的房间被唤醒后重新加入推进列表
+     * @param roomService
+     */
+    public void resumeRoom(RoomService roomService) {
+        if (!inThread()) {
+            executeTask(() -> resumeRoom(roomService));
+            return;
+        }
+        if (roomServices.get(roomService.getRoomId()) == roomService && !roomList.contains(roomService)) {
+            roomList.add(roomService);
+        }
     }
 
     public void removeRoomService(String roomId) {
-        this.roomServices.remove(roomId);
+        if (!inThread()) {
+            executeTask(() -> removeRoomService(roomId));
+            return;
+        }
+        RoomService roomService = this.roomServices.remove(roomId);
+        if (roomService != null) {
+            this.roomList.remove(roomService);
+            playerCapacity.addAndGet(-roomService.getRoomType().getMaxPlayers());
+        }
+        if (virtual && roomServices.isEmpty()) {
+            // 独占的房间已移除，线程结束
+            running = false;
+        }
+    }
+
+    /**
+     * 把本线程中一个负载不超过maxLoad的房间迁移到目标线程，优先选择负载最高的
+     * <p>
+     * 在本线程的两帧之间执行：先从本线程移除，再修改房间的所属线程并交给目标线程，
+     * 房间的截止时间不变，目标线程会按原有相位继续推进。
+     * @param target 目标线程
+     * @param maxLoad 允许迁移的最大房间负载
+     */
+    public void migrateRoom(RoomThread target, double maxLoad) {
+        if (!inThread()) {
+            executeTask(() -> migrateRoom(target, maxLoad));
+            return;
+        }
+        RoomService candidate = null;
+        for (int i = 0; i < roomList.size(); i++) {
+            RoomService roomService = roomList.get(i);
+            double load = roomService.getLoad();
+            if (load <= maxLoad && (candidate == null || load > candidate.getLoad())) {
+                candidate = roomService;
+            }
+        }
+        if (candidate == null) {
+            return;
+        }
+
+        moveRoom(candidate, target);
+    }
+
+    /**
+     * 把本线程的所有房间迁移到其他线程，用于收缩线程池
+     * @param targetSelector 为每个房间选择目标线程
+     */
+    public void evacuate(Supplier<RoomThread> targetSelector) {
+        if (!inThread()) {
+            executeTask(() -> evacuate(targetSelector));
+            return;
+        }
+        // 包括休眠中的房间
+        for (RoomService roomService : new ArrayList<>(roomServices.values())) {
+            RoomThread target = targetSelector.get();
+            if (target == null || target == this) {
+                return;
+            }
+            moveRoom(roomService, target);
+        }
+    }
+
+    private void moveRoom(RoomService roomService, RoomThread target) {
+        removeRoomService(roomService.getRoomId());
+        roomService.setRoomThread(target);
+        target.addRoomService(roomService);
+        logger.info("房间 {} 从 {} 迁移到 {}，房间负载 {}", roomService.getRoomId(), getName(), target.getName(),
+                String.format("%.3f", roomService.getLoad()));
+    }
+
+    /**
+     * 平滑后的忙碌时间比例（0~1）
+     */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    /**
+     * 任务和房间消息的待处理数量（每个负载统计窗口更新一次）
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * 所有房间的人数上限之和
+     */
+    public int getPlayerCapacity() {
+        return playerCapacity.get();
     }
 
     @Override
     public void run() {
-        logger.info("房间线程启动: {}", getName());
+        if (!virtual) {
+            logger.info("房间线程启动: {}", getName());
+        }
 
-        // 稳定20帧循环逻辑 (每秒20帧)
-        final long FRAME_TIME = 50; // 50ms per frame (1000ms / 20fps = 50ms)
-        long lastFrameTime = System.currentTimeMillis();
+        statsDeadline = System.nanoTime() + STATS_INTERVAL;
+        loadWindowStart = System.nanoTime();
 
         while (running) {
             try {
-                // 处理任务队列
-                processTaskQueue();
-                
-                // 处理房间消息队列
-                for (RoomService roomService : roomServices.values()) {
-                    roomService.processMessageQueue();
-                    roomService.pulse();
-                }
+                long nextWake = runOnce();
 
-                // 精确控制帧率，保证稳定的20帧
-                long currentTime = System.currentTimeMillis();
-                long elapsedTime = currentTime - lastFrameTime;
-                long sleepTime = FRAME_TIME - elapsedTime;
-                
-                if (sleepTime > 0) {
-                    Thread.sleep(sleepTime);
+                // 休眠到最近的截止时间，新任务到达时会被提前唤醒
+                if (roomList.isEmpty() && taskQueue.isEmpty() && overflowTasks.isEmpty()) {
+                    // 没有需要推进的房间，负载清零后一直休眠，直到有新任务
+                    resetLoad();
+                    LockSupport.park(this);
+                    loadWindowStart = System.nanoTime();
+                } else {
+                    long waitTime = nextWake - System.nanoTime();
+                    if (waitTime > 0) {
+                        LockSupport.parkNanos(this, waitTime);
+                    }
+                }
+                if (Thread.interrupted()) {
+                    logger.info("房间线程被中断");
+                    break;
                 }
-                
-                // 更新帧时间，如果执行时间超过了帧时间，则立即进入下一帧
-                lastFrameTime = System.currentTimeMillis();
-                
-            } catch (InterruptedException e) {
-                logger.info("房间线程被中断");
-                break;
             } catch (Exception e) {
                 logger.error("房间线程发生未预期错误", e);
             }
         }
     }
 
+    /**
+     * 执行一次房间循环：处理任务和各房间的消息，推进到期的房间
+     * @return 最近的截止时间
+     */
+    private long runOnce() {
+        long loopStart = System.nanoTime();
+
+        // 处理任务队列
+        processTaskQueue();
+
+        long now = System.nanoTime();
+        long nextWake = now + IDLE_WAIT;
+
+        // 处理房间消息队列并按各自的截止时间推进，倒序遍历，房间移出列表时不影响后续遍历
+        for (int i = roomList.size() - 1; i >= 0; i--) {
+            RoomService roomService = roomList.get(i);
+            long roomStart = System.nanoTime();
+            roomService.processMessageQueue();
+            if (!roomService.isTicking()) {
+                // 未开始或没有在线玩家的房间进入休眠，直到有消息或任务唤醒
+                roomList.remove(i);
+                roomService.flushWrites();
+                roomService.hibernate();
+                continue;
+            }
+            long deadline = roomService.tick(roomStart, tickStats);
+            // 本轮的消息处理和帧广播合并为一次刷新
+            roomService.flushWrites();
+            roomService.addBusyTime(System.nanoTime() - roomStart);
+            if (deadline - nextWake < 0) {
+                nextWake = deadline;
+            }
+        }
+        busyTime += System.nanoTime() - loopStart;
+
+        if (now - loadWindowStart >= LOAD_WINDOW) {
+            updateLoad(now - loadWindowStart);
+            loadWindowStart = now;
+        }
+
+        if (now - statsDeadline >= 0) {
+            logTickStats();
+            statsDeadline = now + STATS_INTERVAL;
+        }
+        return nextWake;
+    }
+
+    /**
+     * EventLoop模式下的房间循环，执行后按最近的截止时间安排下一次
+     */
+    private void runOnEventLoop() {
+        loopFuture = null;
+        if (!running) {
+            return;
+        }
+        try {
+            long nextWake = runOnce();
+            if (!roomList.isEmpty()) {
+                scheduleLoop(nextWake);
+            } else {
+                // 没有需要推进的房间，不再安排循环，直到有新任务
+                loopIdle = true;
+                resetLoad();
+            }
+        } catch (Exception e) {
+            logger.error("房间循环发生未预期错误", e);
+            scheduleLoop(System.nanoTime() + IDLE_WAIT);
+        }
+    }
+
+    /**
+     * 在EventLoop上安排房间循环，已安排的循环更晚时提前（仅EventLoop线程调用）
+     * @param deadline 截止时间（System.nanoTime）
+     */
+    private void scheduleLoop(long deadline) {
+        if (loopFuture != null) {
+            if (deadline - loopDeadline >= 0) {
+                return;
+            }
+            loopFuture.cancel(false);
+        } else if (loopIdle) {
+            // 从空闲恢复，重新开始负载统计窗口
+            loopIdle = false;
+            loadWindowStart = System.nanoTime();
+        }
+        loopDeadline = deadline;
+        loopFuture = eventLoop.schedule(loopTask, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private void resetLoad() {
+        utilization = 0;
+        queueDepth = 0;
+        busyTime = 0;
+    }
+
+    /**
+     * 结束一个负载统计窗口，更新线程和各房间的负载指标
+     */
+    private void updateLoad(long windowNanos) {
+        double sample = (double) busyTime / windowNanos;
+        utilization += LOAD_ALPHA * (sample - utilization);
+        busyTime = 0;
+
+        int depth = taskQueue != null ? taskQueue.size() + overflowTasks.size() : 0;
+        for (int i = 0; i < roomList.size(); i++) {
+            RoomService roomService = roomList.get(i);
+            roomService.updateLoad(windowNanos, LOAD_ALPHA);
+            depth += roomService.getQueueSize();
+        }
+        queueDepth = depth;
+        if (depth > peakQueueDepth) {
+            peakQueueDepth = depth;
+        }
+    }
+
+    private void logTickStats() {
+        long dropped = 0;
+        long peakQueuedBytes = 0;
+        int evictions = 0;
+        int lateInputs = 0;
+        int hibernated = 0;
+        int hibernatedBacklog = 0;
+        // 包括休眠中的房间，休眠期间的丢弃和积压同样需要统计；每个统计周期遍历一次，迭代器的分配可以忽略
+        for (RoomService roomService : roomServices.values()) {
+            dropped += roomService.getDroppedMessages();
+            peakQueuedBytes = Math.max(peakQueuedBytes, roomService.takePeakQueuedBytes());
+            evictions += roomService.takeEvictions();
+            lateInputs += roomService.takeLateInputs();
+            if (roomService.isHibernating()) {
+                hibernated++;
+                hibernatedBacklog += roomService.getQueueSize();
+            }
+        }
+        long droppedDelta = Math.max(0, dropped - droppedMessages);
+        droppedMessages = dropped;
+
+        // 虚拟线程模式下每个房间一个线程，统计只在调试时输出
+        boolean active = tickStats.getCount() > 0 || tickStats.getSkipped() > 0 || tickStats.getEarly() > 0
+                || droppedDelta > 0 || hibernatedBacklog > 0;
+        if (active && (!virtual || logger.isDebugEnabled())) {
+            logger.log(virtual ? Level.DEBUG : Level.INFO, "房间线程 {} 帧调度统计: 房间数 {}, 休眠 {}（积压 {}）, 负载 {}, 帧数 {}, 延迟p50 <{}us, p99 <{}us, 最大 {}us, 跳帧 {}, 提前 {}, 队列积压 {}/峰值 {}, 丢弃消息 {}, 迟到输入 {}, 最大写积压 {}B, 踢出慢连接 {}",
+                    getName(), roomList.size(), hibernated, hibernatedBacklog, String.format("%.3f", utilization), tickStats.getCount(),
+                    tickStats.percentileMicros(0.5), tickStats.percentileMicros(0.99), tickStats.getMaxMicros(),
+                    tickStats.getSkipped(), tickStats.getEarly(), queueDepth, peakQueueDepth, droppedDelta, lateInputs, peakQueuedBytes, evictions);
+        }
+        tickStats.reset();
+        peakQueueDepth = 0;
+    }
+
     private void processTaskQueue() {
-        List<Runnable> tasks = new ArrayList<>();
-        taskQueue.drainTo(tasks);
-        
-        for (Runnable task : tasks) {
-            try {
-                task.run();
-            } catch (Exception e) {
-                logger.error("执行任务时发生错误", e);
+        if (taskQueue == null) {
+            return;
+        }
+        // 只执行本次已到达的任务，不产生任何分配
+        taskQueue.drain(TASK_RUNNER);
+        // 溢出队列中的任务晚于任务队列中的任务提交
+        for (int n = overflowTasks.size(); n > 0; n--) {
+            Runnable task = overflowTasks.poll();
+            if (task == null) {
+                break;
             }
+            TASK_RUNNER.accept(task);
         }
     }
 
     /**
-     * 执行任务
+     * 执行任务（任意线程）
+     * <p>
+     * 在房间线程中直接执行；其他线程提交到任务队列，队列满时进入无界的溢出队列，
+     * 调用方可能是Netty的IO线程，任何情况下都不阻塞等待，也不丢弃任务。
      * @param task
      */
     public void executeTask(Runnable task) {
-        try {
-            taskQueue.put(task);
-        } catch (InterruptedException e) {
-            logger.error("添加任务到队列时被中断", e);
+        if (eventLoop != null) {
+            executeOnEventLoop(task);
+            return;
+        }
+        if (inThread()) {
+            TASK_RUNNER.accept(task);
+            return;
+        }
+        if (!overflowTasks.isEmpty() || !taskQueue.offer(task)) {
+            if (overflowTasks.isEmpty()) {
+                logger.warn("房间线程 {} 任务队列已满({})，任务进入溢出队列", getName(), taskQueue.capacity());
+            }
+            overflowTasks.add(task);
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * EventLoop模式下直接使用EventLoop的任务队列，执行后安排房间循环处理新加入或唤醒的房间
+     */
+    private void executeOnEventLoop(Runnable task) {
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(() -> executeOnEventLoop(task));
+            return;
+        }
+        TASK_RUNNER.accept(task);
+        if (running && !roomList.isEmpty()) {
+            scheduleLoop(System.nanoTime());
+        }
+    }
+
+    /**
+     * 立即执行一次房间循环，处理各房间已到达的消息（任意线程）
+     * <p>
+     * 用于需要立即处理的消息，如输入转发；未到截止时间的房间不会提前推进帧。
+     */
+    public void wakeUp() {
+        if (eventLoop != null) {
+            eventLoop.execute(wakeTask);
+        } else {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void wakeOnEventLoop() {
+        if (running && !roomList.isEmpty()) {
+            scheduleLoop(System.nanoTime());
         }
     }
 
     public void stopRunning() {
         running = false;
+        if (eventLoop != null) {
+            eventLoop.execute(() -> {
+                if (loopFuture != null) {
+                    loopFuture.cancel(false);
+                    loopFuture = null;
+                }
+            });
+        } else {
+            LockSupport.unpark(thread);
+        }
     }
 }
\ No newline at end of file
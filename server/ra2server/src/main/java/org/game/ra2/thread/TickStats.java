@@ -0,0 +1,94 @@
+package org.game.ra2.thread;
+
+import java.util.Arrays;
+
+/**
+ * 房间线程的帧调度统计
+ * <p>
+ * 记录每次帧执行相对截止时间的延迟，按微秒的2的幂分桶（第i个桶表示小于2^i微秒），
+ * 以及因落后太多而跳过的帧数、因输入到齐而提前执行的帧数。只在所属房间线程中访问。
+ */
+public class TickStats {
+    private static final int BUCKETS = 32;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long maxNanos;
+    private long skipped;
+    private long early;
+
+    /**
+     * 记录一次帧执行的延迟
+     * @param lateNanos 实际执行时间减去截止时间（纳秒）
+     */
+    public void recordLateness(long lateNanos) {
+        long micros = Math.max(lateNanos, 0) / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets[bucket]++;
+        count++;
+        if (lateNanos > maxNanos) {
+            maxNanos = lateNanos;
+        }
+    }
+
+    /**
+     * 记录跳过的帧数
+     */
+    public void recordSkipped(long frames) {
+        skipped += frames;
+    }
+
+    /**
+     * 记录一次提前执行的帧，不计入延迟分布
+     */
+    public void recordEarly() {
+        early++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getEarly() {
+        return early;
+    }
+
+    public long getMaxMicros() {
+        return maxNanos / 1000;
+    }
+
+    /**
+     * 延迟分位数的上界
+     * @param quantile 分位（0~1）
+     * @return 所在桶的上界（微秒），没有记录时返回0
+     */
+    public long percentileMicros(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * 清空统计，开始新的统计周期
+     */
+    public void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        maxNanos = 0;
+        skipped = 0;
+        early = 0;
+    }
+}
@@ -0,0 +1,62 @@
+package org.game.ra2.thread;
+
+import java.lang.reflect.Method;
+
+/**
+ * 虚拟线程支持
+ * <p>
+ * 项目以Java 11编译，通过反射调用Thread.ofVirtual()，运行在Java 21及以上版本时可用。
+ */
+public final class VirtualThreads {
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builderClass.getMethod("name", String.class);
+            unstarted = builderClass.getMethod("unstarted", Runnable.class);
+            // Java 19/20中虚拟线程是预览特性，未开启时调用会抛出异常
+            ofVirtual.invoke(null);
+        } catch (Throwable e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行环境是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * 创建未启动的虚拟线程
+     * @param name 线程名称
+     * @param task 线程任务
+     * @return 虚拟线程
+     * @throws UnsupportedOperationException 运行环境不支持虚拟线程
+     */
+    public static Thread newThread(String name, Runnable task) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("当前运行环境不支持虚拟线程: " + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+            return (Thread) UNSTARTED.invoke(builder, task);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程失败", e);
+        }
+    }
+}
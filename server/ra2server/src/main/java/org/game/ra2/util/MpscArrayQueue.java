@@ -0,0 +1,103 @@
+package org.game.ra2.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 有界多生产者单消费者队列
+ * <p>
+ * 基于数组，容量向上取整为2的幂。生产者通过CAS抢占写入位置，不加锁、不分配节点；
+ * 只允许一个线程调用poll/drain。队列满时offer返回false，由调用方决定溢出策略。
+ * @param <E> 元素类型
+ */
+public class MpscArrayQueue<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /**
+     * @param capacity 最小容量
+     */
+    public MpscArrayQueue(int capacity) {
+        int actual = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(actual);
+        this.mask = actual - 1;
+    }
+
+    /**
+     * 入队（任意线程）
+     * @param e 元素，不能为null
+     * @return 队列已满时返回false
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() > mask) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        buffer.lazySet((int) index & mask, e);
+        return true;
+    }
+
+    /**
+     * 出队（仅消费者线程）
+     * @return 队首元素，队列为空时返回null
+     */
+    public E poll() {
+        long index = consumerIndex.get();
+        int offset = (int) index & mask;
+        E e = buffer.get(offset);
+        if (e == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            // 生产者已抢占位置但尚未写入，等待写入完成
+            do {
+                Thread.onSpinWait();
+                e = buffer.get(offset);
+            } while (e == null);
+        }
+        buffer.lazySet(offset, null);
+        consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    /**
+     * 取出调用时已在队列中的元素交给consumer处理，不产生任何分配（仅消费者线程）
+     * @param consumer 元素处理器
+     * @return 处理的元素数
+     */
+    public int drain(Consumer<? super E> consumer) {
+        long limit = producerIndex.get() - consumerIndex.get();
+        int count = 0;
+        E e;
+        while (count < limit && (e = poll()) != null) {
+            consumer.accept(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 当前元素数量（近似值）
+     */
+    public int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public boolean isEmpty() {
+        return producerIndex.get() == consumerIndex.get();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,27 @@
+package org.game.ra2.util;
+
+/**
+ * 服务器单调时钟，以服务器启动时刻为原点、微秒为单位，用于向客户端发布时间
+ * <p>
+ * 基于System.nanoTime，不受系统时间调整影响；原点固定，发布的时间总是非负数。
+ */
+public final class ServerClock {
+    private static final long ORIGIN = System.nanoTime();
+
+    private ServerClock() {
+    }
+
+    /**
+     * 当前时间（微秒）
+     */
+    public static long nowMicros() {
+        return toMicros(System.nanoTime());
+    }
+
+    /**
+     * 把System.nanoTime的时间点转换为服务器时钟（微秒）
+     */
+    public static long toMicros(long nanoTime) {
+        return (nanoTime - ORIGIN) / 1000;
+    }
+}
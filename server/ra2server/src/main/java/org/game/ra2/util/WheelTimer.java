@@ -0,0 +1,31 @@
+package org.game.ra2.util;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局时间轮定时器，用于房间销毁等精度要求不高的超时
+ * <p>
+ * 到期任务在定时器线程中执行，需要访问房间数据的任务应再转交给房间线程。
+ */
+public final class WheelTimer {
+    private static final HashedWheelTimer timer = new HashedWheelTimer(
+            new DefaultThreadFactory("WheelTimer", true), 100, TimeUnit.MILLISECONDS, 512);
+
+    private WheelTimer() {
+    }
+
+    /**
+     * 延迟执行任务
+     * @param task 任务
+     * @param delay 延迟
+     * @param unit 时间单位
+     * @return 可用于取消的超时句柄
+     */
+    public static Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.newTimeout(timeout -> task.run(), delay, unit);
+    }
+}
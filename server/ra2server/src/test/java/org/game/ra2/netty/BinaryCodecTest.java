@@ -0,0 +1,146 @@
+package org.game.ra2.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.game.ra2.message.FrameInputBatchMessage;
+import org.game.ra2.message.FrameInputMessage;
+import org.game.ra2.message.Message;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryCodecTest {
+
+    @Test
+    void varIntRoundTripAtLengthBoundaries() throws IOException {
+        int[] values = {0, 1, 127, 128, 16383, 16384, (1 << 21) - 1, 1 << 21, (1 << 28) - 1, 1 << 28, Integer.MAX_VALUE};
+        int[] lengths = {1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5};
+        for (int i = 0; i < values.length; i++) {
+            ByteBuf buf = Unpooled.buffer();
+            try {
+                BinaryCodec.writeVarInt(buf, values[i]);
+                assertEquals(lengths[i], buf.readableBytes(), "编码长度: " + values[i]);
+                assertEquals(values[i], BinaryCodec.readVarInt(buf));
+                assertFalse(buf.isReadable());
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    @Test
+    void varIntIsUnsignedForNegativeValues() throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            BinaryCodec.writeVarInt(buf, -1);
+            assertEquals(5, buf.readableBytes());
+            assertEquals(-1, BinaryCodec.readVarInt(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void consecutiveVarIntsDecodeInOrder() throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            for (int value = 0; value < 100_000; value += 97) {
+                BinaryCodec.writeVarInt(buf, value);
+            }
+            for (int value = 0; value < 100_000; value += 97) {
+                assertEquals(value, BinaryCodec.readVarInt(buf));
+            }
+            assertFalse(buf.isReadable());
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void truncatedVarIntIsRejected() {
+        ByteBuf buf = Unpooled.wrappedBuffer(new byte[]{(byte) 0x80, (byte) 0x80});
+        try {
+            assertThrows(IOException.class, () -> BinaryCodec.readVarInt(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void overlongVarIntIsRejected() {
+        ByteBuf buf = Unpooled.wrappedBuffer(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+        try {
+            assertThrows(IOException.class, () -> BinaryCodec.readVarInt(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void batchIsSortedAndDeduplicated() throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            buf.writeByte(BinaryCodec.FRAME_INPUT_BATCH);
+            BinaryCodec.writeVarInt(buf, 3);
+            writeFrame(buf, 12, "[2]");
+            writeFrame(buf, 11, "[1]");
+            writeFrame(buf, 12, "[3]");
+            Message message = BinaryCodec.decode(1, 0, buf);
+            FrameInputBatchMessage batch = assertInstanceOf(FrameInputBatchMessage.class, message);
+            assertEquals(2, batch.getCount());
+            assertEquals(11, batch.getFrame(0));
+            assertEquals(12, batch.getFrame(1));
+            // 同一帧以靠后的一条为准
+            assertEquals("[3]", new String(batch.getInputs(1), StandardCharsets.UTF_8));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void negativeFrameIsRejected() {
+        ByteBuf single = Unpooled.buffer();
+        ByteBuf batch = Unpooled.buffer();
+        try {
+            // varint按无符号编码，超出int范围的帧号解码为负数，与JSON协议一样拒绝
+            single.writeByte(BinaryCodec.FRAME_INPUT);
+            writeFrame(single, -1, "[]");
+            assertThrows(IOException.class, () -> BinaryCodec.decode(1, 0, single));
+
+            batch.writeByte(BinaryCodec.FRAME_INPUT_BATCH);
+            BinaryCodec.writeVarInt(batch, 2);
+            writeFrame(batch, 5, "[]");
+            writeFrame(batch, Integer.MIN_VALUE, "[]");
+            assertThrows(IOException.class, () -> BinaryCodec.decode(1, 0, batch));
+        } finally {
+            single.release();
+            batch.release();
+        }
+    }
+
+    @Test
+    void frameInputRoundTrip() throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            buf.writeByte(BinaryCodec.FRAME_INPUT);
+            writeFrame(buf, 300, "[{\"cmd\":\"move\"}]");
+            FrameInputMessage input = assertInstanceOf(FrameInputMessage.class, BinaryCodec.decode(1, 0, buf));
+            assertEquals(300, input.getFrame());
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void writeFrame(ByteBuf buf, int frame, String inputs) {
+        byte[] data = inputs.getBytes(StandardCharsets.UTF_8);
+        BinaryCodec.writeVarInt(buf, frame);
+        BinaryCodec.writeVarInt(buf, data.length);
+        buf.writeBytes(data);
+    }
+}
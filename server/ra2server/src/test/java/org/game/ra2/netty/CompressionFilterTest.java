@@ -0,0 +1,40 @@
+package org.game.ra2.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionFilterTest {
+
+    private static boolean skips(CompressionFilter filter, WebSocketFrame frame) {
+        try {
+            return filter.mustSkip(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    void emptyFramesAreNeverCompressed() {
+        CompressionFilter typed = new CompressionFilter(0, "frameSync");
+        CompressionFilter all = new CompressionFilter(0, "*");
+        assertTrue(skips(typed, new BinaryWebSocketFrame(Unpooled.EMPTY_BUFFER)));
+        assertTrue(skips(typed, new TextWebSocketFrame(Unpooled.EMPTY_BUFFER)));
+        assertTrue(skips(all, new BinaryWebSocketFrame(Unpooled.EMPTY_BUFFER)));
+    }
+
+    @Test
+    void filtersByMinimumLengthAndType() {
+        CompressionFilter filter = new CompressionFilter(4, "frameSync");
+        assertTrue(skips(filter, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{BinaryCodec.FRAME_SYNC}))));
+        assertFalse(skips(filter, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{BinaryCodec.FRAME_SYNC, 0, 0, 0}))));
+        assertTrue(skips(filter, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{BinaryCodec.PONG, 0, 0, 0}))));
+        assertFalse(skips(filter, new TextWebSocketFrame("{\"type\":\"frameSync\",\"frame\":1}")));
+        assertTrue(skips(filter, new TextWebSocketFrame("{\"type\":\"pong\"}")));
+    }
+}
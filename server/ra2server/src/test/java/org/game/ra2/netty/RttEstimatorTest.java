@@ -0,0 +1,69 @@
+package org.game.ra2.netty;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RttEstimatorTest {
+
+    @Test
+    void acceptsOnlyPongForLatestProbeOnce() {
+        RttEstimator estimator = new RttEstimator();
+        assertFalse(estimator.acceptPong(0));
+        assertFalse(estimator.acceptPong(100));
+
+        estimator.probeSent(100);
+        estimator.probeSent(200);
+        // 晚于下一次ping到达的pong和伪造的pong被拒绝
+        assertFalse(estimator.acceptPong(100));
+        assertFalse(estimator.acceptPong(150));
+        assertTrue(estimator.acceptPong(200));
+        // 同一ping的重复pong被拒绝
+        assertFalse(estimator.acceptPong(200));
+    }
+
+    @Test
+    void acceptsEachProbeAtMostOnceAcrossThreads() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        int probes = 20_000;
+        AtomicIntegerArray accepted = new AtomicIntegerArray(probes + 1);
+        // ping任务和两个pong处理线程同时运行，模拟频道迁移EventLoop期间重复到达的pong
+        Runnable pongs = () -> {
+            for (int probe = 1; probe <= probes; probe++) {
+                if (estimator.acceptPong(probe)) {
+                    accepted.incrementAndGet(probe);
+                }
+            }
+        };
+        Thread first = new Thread(pongs);
+        Thread second = new Thread(pongs);
+        first.start();
+        second.start();
+        for (int probe = 1; probe <= probes; probe++) {
+            estimator.probeSent(probe);
+        }
+        first.join();
+        second.join();
+        for (int probe = 1; probe <= probes; probe++) {
+            assertTrue(accepted.get(probe) <= 1, "ping " + probe + " 的pong被接受了多次");
+        }
+    }
+
+    @Test
+    void smoothsSamplesLikeTcp() {
+        RttEstimator estimator = new RttEstimator();
+        estimator.update(80);
+        assertEquals(80, estimator.getSrttNanos());
+        assertEquals(40, estimator.getRttVarNanos());
+
+        estimator.update(160);
+        // rttvar += (|80 - 160| - 40) / 4，srtt += (160 - 80) / 8
+        assertEquals(50, estimator.getRttVarNanos());
+        assertEquals(90, estimator.getSrttNanos());
+        assertEquals(2, estimator.getSamples());
+    }
+}
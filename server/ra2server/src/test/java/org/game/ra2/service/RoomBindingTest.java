@@ -0,0 +1,36 @@
+package org.game.ra2.service;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.game.ra2.util.AllocationMeter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RoomBindingTest {
+    private static final int LOOKUPS = 100_000;
+
+    @Test
+    void lookupAllocatesNothing() {
+        assumeTrue(AllocationMeter.isSupported(), "JVM不支持线程分配计数");
+        EmbeddedChannel channel = new EmbeddedChannel();
+        RoomBinding binding = new RoomBinding(null, 3);
+        channel.attr(RoomBinding.KEY).set(binding);
+        int[] slots = new int[1];
+        Runnable lookups = () -> {
+            for (int i = 0; i < LOOKUPS; i++) {
+                slots[0] += RoomBinding.of(channel).getSlot();
+            }
+        };
+        // 预热到JIT编译完成
+        for (int i = 0; i < 20; i++) {
+            lookups.run();
+        }
+
+        // 入站消息每条都查一次绑定，替换原来两次ConcurrentHashMap查找后不应产生任何分配
+        assertEquals(0, AllocationMeter.measure(lookups));
+        assertSame(binding, RoomBinding.of(channel));
+        channel.finishAndReleaseAll();
+    }
+}
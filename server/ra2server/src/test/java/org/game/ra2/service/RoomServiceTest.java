@@ -0,0 +1,75 @@
+package org.game.ra2.service;
+
+import io.netty.channel.DefaultEventLoop;
+import org.game.ra2.entity.RoomType;
+import org.game.ra2.message.FrameInputMessage;
+import org.game.ra2.thread.RoomThread;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RoomServiceTest {
+    private static final int MAX_PENDING_PER_PLAYER = 128;
+    private static final int MESSAGES = 10 * MAX_PENDING_PER_PLAYER;
+    private static final byte[] INPUTS = "[]".getBytes(StandardCharsets.UTF_8);
+
+    private DefaultEventLoop eventLoop;
+    private RoomService roomService;
+
+    @BeforeEach
+    void setUp() {
+        eventLoop = new DefaultEventLoop();
+        RoomThread roomThread = new RoomThread("loop", eventLoop);
+        roomService = new RoomService("test", RoomType.DUO, roomThread);
+        // 会话不在线，房间只处理消息，不发送；房间不加入循环，排队的消息只在测试中显式处理
+        roomService.createRoom(new MatchService.PlayerInfo[]{
+                new MatchService.PlayerInfo(-2, "red"), new MatchService.PlayerInfo(-3, "blue")});
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    private void send(int count) {
+        for (int i = 0; i < count; i++) {
+            roomService.addMessage(new FrameInputMessage(-2, 0, i % 60, INPUTS));
+        }
+    }
+
+    @Test
+    void inputsOnRoomLoopBypassQueue() throws Exception {
+        int[] maxQueued = new int[1];
+        eventLoop.submit(() -> {
+            for (int i = 0; i < MESSAGES; i++) {
+                send(1);
+                maxQueued[0] = Math.max(maxQueued[0], roomService.getQueueSize());
+            }
+        }).get();
+
+        // 频道与房间在同一EventLoop时每条输入都直接处理，不进入队列，也不受队列配额限制
+        assertEquals(0, maxQueued[0]);
+        assertEquals(0, roomService.getDroppedMessages());
+    }
+
+    @Test
+    void inputsFromOtherThreadsAreQueued() throws Exception {
+        send(MESSAGES);
+
+        // 其他线程提交的输入经过队列交给房间循环，每个玩家最多积压MAX_PENDING_PER_PLAYER条
+        assertEquals(MAX_PENDING_PER_PLAYER, roomService.getQueueSize());
+        assertEquals(MESSAGES - MAX_PENDING_PER_PLAYER, roomService.getDroppedMessages());
+
+        eventLoop.submit(roomService::processMessageQueue).get();
+        assertEquals(0, roomService.getQueueSize());
+        // 队列处理完后配额释放，在房间循环中到达的输入又可以直接处理
+        eventLoop.submit(() -> send(MESSAGES)).get();
+        assertEquals(0, roomService.getQueueSize());
+        assertEquals(MESSAGES - MAX_PENDING_PER_PLAYER, roomService.getDroppedMessages());
+    }
+}
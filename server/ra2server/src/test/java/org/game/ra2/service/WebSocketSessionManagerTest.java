@@ -0,0 +1,50 @@
+package org.game.ra2.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.CharsetUtil;
+import org.game.ra2.netty.WireProtocol;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class WebSocketSessionManagerTest {
+
+    @Test
+    void broadcastSharesOneEncodedBuffer() {
+        WebSocketSessionManager manager = WebSocketSessionManager.getInstance();
+        EmbeddedChannel[] receivers = {new EmbeddedChannel(), new EmbeddedChannel(), new EmbeddedChannel()};
+        EmbeddedChannel binary = new EmbeddedChannel();
+        binary.attr(WireProtocol.KEY).set(WireProtocol.BINARY);
+        // 空位和其他协议的频道不接收
+        Channel[] channels = {receivers[0], null, receivers[1], binary, receivers[2]};
+        ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
+        content.writeCharSequence("{\"type\":\"frameSync\",\"frame\":1}", CharsetUtil.UTF_8);
+
+        manager.broadcastText(channels, content, WireProtocol.JSON);
+        manager.flush(channels);
+
+        // 每个频道拿到的是同一个缓冲的duplicate，广播只编码一次，不按玩家复制内容
+        assertEquals(receivers.length, content.refCnt());
+        for (EmbeddedChannel receiver : receivers) {
+            TextWebSocketFrame frame = receiver.readOutbound();
+            assertSame(content, frame.content().unwrap());
+            assertEquals("{\"type\":\"frameSync\",\"frame\":1}", frame.text());
+            assertNull(receiver.readOutbound());
+            frame.release();
+        }
+        assertNull(binary.readOutbound());
+        // 所有接收方释放后缓冲归还内存池
+        assertEquals(0, content.refCnt());
+
+        for (EmbeddedChannel receiver : receivers) {
+            receiver.finishAndReleaseAll();
+        }
+        binary.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,85 @@
+package org.game.ra2.thread;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameInputRingTest {
+
+    private static byte[] inputs(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new FrameInputRing(1, 2).getCapacity());
+        assertEquals(16, new FrameInputRing(11, 2).getCapacity());
+        assertEquals(16, new FrameInputRing(16, 2).getCapacity());
+    }
+
+    @Test
+    void emptyUntilWritten() {
+        FrameInputRing ring = new FrameInputRing(8, 2);
+        assertFalse(ring.contains(0, 0));
+        assertNull(ring.get(0, 0));
+        assertNull(ring.get(5, 1));
+    }
+
+    @Test
+    void slotsAreIndependentAndLaterWriteWins() {
+        FrameInputRing ring = new FrameInputRing(8, 2);
+        byte[] first = inputs("[1]");
+        byte[] second = inputs("[2]");
+        ring.put(3, 0, first);
+        assertSame(first, ring.get(3, 0));
+        assertFalse(ring.contains(3, 1));
+
+        ring.put(3, 0, second);
+        assertSame(second, ring.get(3, 0));
+    }
+
+    @Test
+    void reusedFrameSlotReadsAsEmptyForOtherFrames() {
+        FrameInputRing ring = new FrameInputRing(8, 2);
+        int capacity = ring.getCapacity();
+        ring.put(2, 0, inputs("[\"old\"]"));
+        ring.put(2, 1, inputs("[\"old\"]"));
+
+        // 同一帧槽位被新帧复用：新帧只写入了玩家0，玩家1不能读到旧帧的输入
+        int reused = 2 + capacity;
+        ring.put(reused, 0, inputs("[\"new\"]"));
+        assertArrayEquals(inputs("[\"new\"]"), ring.get(reused, 0));
+        assertNull(ring.get(reused, 1));
+        assertFalse(ring.contains(reused, 1));
+
+        // 旧帧已被覆盖
+        assertFalse(ring.contains(2, 0));
+        assertNull(ring.get(2, 0));
+        // 未被覆盖的玩家1旧输入仍可按旧帧号读取
+        assertTrue(ring.contains(2, 1));
+    }
+
+    @Test
+    void keepsWindowAcrossManyWraps() {
+        FrameInputRing ring = new FrameInputRing(8, 1);
+        int capacity = ring.getCapacity();
+        for (int frame = 0; frame < capacity * 50; frame++) {
+            ring.put(frame, 0, inputs("[" + frame + "]"));
+            // 最近capacity帧都可读，更早的帧已被覆盖
+            assertArrayEquals(inputs("[" + frame + "]"), ring.get(frame, 0));
+            if (frame >= capacity - 1) {
+                assertArrayEquals(inputs("[" + (frame - capacity + 1) + "]"), ring.get(frame - capacity + 1, 0));
+            }
+            if (frame >= capacity) {
+                assertNull(ring.get(frame - capacity, 0));
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package org.game.ra2.thread;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.game.ra2.entity.Camp;
+import org.game.ra2.entity.Player;
+import org.game.ra2.message.FrameInputBatchMessage;
+import org.game.ra2.message.FrameInputMessage;
+import org.game.ra2.netty.ClientFeature;
+import org.game.ra2.service.WebSocketSessionManager;
+import org.game.ra2.util.AllocationMeter;
+import org.game.ra2.util.ObjectMapperProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RoomTest {
+    private static final int TICK_RATE = 30;
+
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+    private final List<Player> players = new ArrayList<>();
+    private final List<FlushCounter> flushes = new ArrayList<>();
+    private Room room;
+
+    @BeforeEach
+    void setUp() {
+        room = new Room("test", TICK_RATE, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (int i = 0; i < players.size(); i++) {
+            WebSocketSessionManager.getInstance().removeChannel(players.get(i).getSessionId());
+            channels.get(i).finishAndReleaseAll();
+        }
+    }
+
+    /**
+     * 统计频道的flush次数
+     */
+    private static final class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private int count;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            count++;
+            ctx.flush();
+        }
+
+        int take() {
+            int taken = count;
+            count = 0;
+            return taken;
+        }
+    }
+
+    /**
+     * 加入一个使用JSON协议的玩家
+     */
+    private Player join(Camp camp) {
+        return join(camp, 0);
+    }
+
+    /**
+     * 加入一个使用JSON协议并声明了指定功能的玩家
+     */
+    private Player join(Camp camp, int features) {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter);
+        ClientFeature.set(channel, features);
+        flushes.add(counter);
+        Player player = new Player(camp);
+        player.setSessionId(WebSocketSessionManager.getInstance().addChannel(channel));
+        room.addPlayer(player);
+        channels.add(channel);
+        players.add(player);
+        return player;
+    }
+
+    /**
+     * 所有玩家准备就绪，开始游戏并丢弃gameStart
+     */
+    private void start() {
+        for (Player player : players) {
+            room.markPlayerReady(player.getSessionId(), player.getSlot());
+        }
+        room.flushWrites();
+        for (int i = 0; i < channels.size(); i++) {
+            assertEquals("gameStart", readMessages(i).get(0).get("type").asText());
+        }
+    }
+
+    /**
+     * 推进一帧并刷新写缓冲
+     */
+    private void tick() {
+        room.update();
+        room.flushWrites();
+    }
+
+    /**
+     * 推进到指定帧，丢弃期间的消息
+     */
+    private void advanceTo(int frame) {
+        while (room.getCurrentFrame() < frame) {
+            tick();
+        }
+        for (int i = 0; i < channels.size(); i++) {
+            readMessages(i);
+        }
+    }
+
+    private List<JsonNode> readMessages(int index) {
+        List<JsonNode> messages = new ArrayList<>();
+        TextWebSocketFrame frame;
+        while ((frame = channels.get(index).readOutbound()) != null) {
+            try {
+                messages.add(ObjectMapperProvider.getInstance().readTree(frame.text()));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                frame.release();
+            }
+        }
+        return messages;
+    }
+
+    private static byte[] inputs(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void sendBatch(Player player, int[] frames, String... data) {
+        byte[][] inputs = new byte[frames.length][];
+        for (int i = 0; i < frames.length; i++) {
+            inputs[i] = inputs(data[i]);
+        }
+        room.addFrameInputBatch(new FrameInputBatchMessage(player.getSessionId(), player.getSlot(), frames.clone(), inputs, frames.length));
+    }
+
+    /**
+     * 取出玩家收到的指定帧的frameSync中某阵营的输入
+     */
+    private String syncedInputs(int index, int frame, Camp camp) {
+        for (JsonNode message : readMessages(index)) {
+            if ("frameSync".equals(message.get("type").asText()) && message.get("frame").asInt() == frame) {
+                for (JsonNode entry : message.get("data")) {
+                    if (entry.get("campId").asInt() == camp.getId()) {
+                        return entry.get("inputs").toString();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void lateBatchResentOnSameFrameIsAppliedOnce() {
+        Player red = join(Camp.Red);
+        join(Camp.Blue);
+        start();
+        advanceTo(3);
+
+        // 第2帧的输入迟到，归入第3帧；服务器仍在第3帧时客户端补发同一批
+        sendBatch(red, new int[]{2}, "[\"a\"]");
+        sendBatch(red, new int[]{2}, "[\"a\"]");
+        tick();
+
+        assertEquals("[\"a\"]", syncedInputs(1, 3, Camp.Red));
+    }
+
+    @Test
+    void lateBatchResentAfterAdvanceIsNotReapplied() {
+        Player red = join(Camp.Red);
+        join(Camp.Blue);
+        start();
+        advanceTo(3);
+
+        sendBatch(red, new int[]{2}, "[\"a\"]");
+        tick();
+        assertEquals("[\"a\"]", syncedInputs(1, 3, Camp.Red));
+
+        // 服务器已到第4帧，补发窗口[2,3,4]：第2帧已收到，第3帧迟到归入第4帧
+        sendBatch(red, new int[]{2, 3, 4}, "[\"a\"]", "[\"b\"]", "[\"c\"]");
+        tick();
+
+        assertEquals("[\"b\",\"c\"]", syncedInputs(1, 4, Camp.Red));
+    }
+
+    @Test
+    void currentFrameKeepsEarlierLateInputs() {
+        Player red = join(Camp.Red);
+        join(Camp.Blue);
+        start();
+        advanceTo(3);
+
+        sendBatch(red, new int[]{2}, "[\"a\"]");
+        sendBatch(red, new int[]{3}, "[\"b\"]");
+        tick();
+
+        assertEquals("[\"a\",\"b\"]", syncedInputs(1, 3, Camp.Red));
+    }
+
+    @Test
+    void batchSkipsFramesAlreadySentAsSingleInputs() {
+        Player red = join(Camp.Red);
+        join(Camp.Blue);
+        start();
+        advanceTo(3);
+
+        room.addFrameInput(new FrameInputMessage(red.getSessionId(), red.getSlot(), 4, inputs("[\"x\"]")));
+        sendBatch(red, new int[]{4, 5}, "[\"x\"]", "[\"y\"]");
+        tick();
+        tick();
+        tick();
+
+        // 第3、4、5帧各一条frameSync，第4帧的输入只出现一次
+        List<JsonNode> messages = readMessages(1);
+        assertEquals(3, messages.size());
+        assertEquals("[\"x\"]", messages.get(1).get("data").get(0).get("inputs").toString());
+        assertEquals("[\"y\"]", messages.get(2).get("data").get(0).get("inputs").toString());
+    }
+
+    @Test
+    void tickWritesAreFlushedOnceAfterProcessing() {
+        Player red = join(Camp.Red);
+        join(Camp.Blue);
+        start();
+        advanceTo(3);
+        flushes.get(1).take();
+
+        // 迟到输入和帧同步在同一帧内写入，只在flushWrites时刷新一次
+        sendBatch(red, new int[]{2}, "[\"a\"]");
+        room.update();
+        assertNull(channels.get(1).readOutbound());
+        assertEquals(0, flushes.get(1).take());
+
+        room.flushWrites();
+        assertEquals(1, flushes.get(1).take());
+        assertEquals("[\"a\"]", syncedInputs(1, 3, Camp.Red));
+
+        // 没有新的写入时不刷新
+        room.flushWrites();
+        assertEquals(0, flushes.get(1).take());
+    }
+
+    @Test
+    void emptyRunIsSentBeforeNextNonEmptyFrame() {
+        join(Camp.Red, ClientFeature.EMPTY_FRAME_RUNS.mask());
+        Player blue = join(Camp.Blue);
+        start();
+
+        tick();
+        tick();
+        tick();
+        // 声明了空帧合并的频道暂不接收空帧，其他频道逐帧接收
+        assertEquals(0, readMessages(0).size());
+        assertEquals(3, readMessages(1).size());
+
+        room.addFrameInput(new FrameInputMessage(blue.getSessionId(), blue.getSlot(), 3, inputs("[\"a\"]")));
+        tick();
+
+        List<JsonNode> messages = readMessages(0);
+        assertEquals(2, messages.size());
+        assertEquals("emptyFrames", messages.get(0).get("type").asText());
+        assertEquals(0, messages.get(0).get("from").asInt());
+        assertEquals(2, messages.get(0).get("to").asInt());
+        assertEquals("frameSync", messages.get(1).get("type").asText());
+        assertEquals(3, messages.get(1).get("frame").asInt());
+    }
+
+    @Test
+    void emptyRunIsCappedByMaxDuration() {
+        join(Camp.Red, ClientFeature.EMPTY_FRAME_RUNS.mask());
+        join(Camp.Blue);
+        start();
+
+        // 默认250ms，30帧/秒时每7帧合并发送一次
+        int maxFrames = 250 * TICK_RATE / 1000;
+        for (int i = 0; i < maxFrames - 1; i++) {
+            tick();
+        }
+        assertEquals(0, readMessages(0).size());
+
+        tick();
+        List<JsonNode> messages = readMessages(0);
+        assertEquals(1, messages.size());
+        assertEquals(0, messages.get(0).get("from").asInt());
+        assertEquals(maxFrames - 1, messages.get(0).get("to").asInt());
+
+        tick();
+        assertEquals(0, readMessages(0).size());
+    }
+
+    @Test
+    void unwritableChannelCatchesUpInOneBatch() {
+        Player red = join(Camp.Red);
+        join(Camp.Blue);
+        start();
+        advanceTo(2);
+
+        // 频道不可写期间暂停帧同步，恢复后把落下的帧合并补发
+        EmbeddedChannel slow = channels.get(1);
+        slow.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        room.addFrameInput(new FrameInputMessage(red.getSessionId(), red.getSlot(), 3, inputs("[\"a\"]")));
+        tick();
+        tick();
+        assertEquals(0, readMessages(1).size());
+        assertEquals(2, readMessages(0).size());
+
+        slow.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        tick();
+        List<JsonNode> messages = readMessages(1);
+        assertEquals(1, messages.size());
+        JsonNode frames = messages.get(0).get("frames");
+        assertEquals("frameSyncBatch", messages.get(0).get("type").asText());
+        assertEquals(3, frames.size());
+        assertEquals(2, frames.get(0).get("frame").asInt());
+        assertEquals("[\"a\"]", frames.get(1).get("data").get(0).get("inputs").toString());
+        assertEquals(4, frames.get(2).get("frame").asInt());
+    }
+
+    @Test
+    void relayForwardsInputsAndEchoesClampedOnes() {
+        int relay = ClientFeature.INPUT_RELAY.mask();
+        Player red = join(Camp.Red, relay);
+        join(Camp.Blue, relay);
+        start();
+        advanceTo(2);
+
+        // 按时的输入立即转发给其他玩家，不回发给发送者
+        room.addFrameInput(new FrameInputMessage(red.getSessionId(), red.getSlot(), 3, inputs("[\"a\"]")));
+        room.flushWrites();
+        assertEquals(0, readMessages(0).size());
+        List<JsonNode> messages = readMessages(1);
+        assertEquals(1, messages.size());
+        assertEquals("relayInput", messages.get(0).get("type").asText());
+        assertEquals(3, messages.get(0).get("frame").asInt());
+
+        // 帧同步只发送封帧确认
+        tick();
+        messages = readMessages(1);
+        assertEquals(1, messages.size());
+        assertEquals("frameSealed", messages.get(0).get("type").asText());
+        readMessages(0);
+
+        // 迟到的输入归入当前帧，也发给发送者，使其按实际帧号处理
+        room.addFrameInput(new FrameInputMessage(red.getSessionId(), red.getSlot(), 1, inputs("[\"b\"]")));
+        room.flushWrites();
+        messages = readMessages(0);
+        assertEquals(1, messages.size());
+        assertEquals(3, messages.get(0).get("frame").asInt());
+        assertEquals(3, readMessages(1).get(0).get("frame").asInt());
+    }
+
+    @Test
+    void quietEmptyTicksAllocateNothing() {
+        assumeTrue(AllocationMeter.isSupported(), "JVM不支持线程分配计数");
+        int runs = ClientFeature.EMPTY_FRAME_RUNS.mask();
+        join(Camp.Red, runs);
+        join(Camp.Blue, runs);
+        start();
+        // 预热到JIT编译完成，期间丢弃合并发送的emptyFrames
+        for (int i = 0; i < 20_000; i++) {
+            tick();
+            if (i % 100 == 0) {
+                advanceTo(room.getCurrentFrame());
+            }
+        }
+        advanceTo(room.getCurrentFrame());
+
+        // 所有玩家都合并空帧时大部分帧不发送消息，这些帧的推进、收集和刷新不应分配任何对象；
+        // 发送emptyFrames的帧有ByteBuf和WebSocket帧的分配，不计入
+        int quietTicks = 0;
+        for (int i = 0; i < 700; i++) {
+            long allocated = AllocationMeter.measure(this::tick);
+            if (channels.get(0).outboundMessages().isEmpty() && channels.get(1).outboundMessages().isEmpty()) {
+                assertEquals(0, allocated, "第" + room.getCurrentFrame() + "帧发生了分配");
+                quietTicks++;
+            } else {
+                advanceTo(room.getCurrentFrame());
+            }
+        }
+        assertTrue(quietTicks >= 500, "不发送消息的帧太少: " + quietTicks);
+    }
+}
@@ -0,0 +1,97 @@
+package org.game.ra2.thread;
+
+import io.netty.channel.DefaultEventLoop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RoomThreadTest {
+    private static final int ROOMS = 1000;
+
+    @Test
+    void blockedVirtualRoomDoesNotDelayOthers() throws Exception {
+        assumeTrue(VirtualThreads.isSupported(), "需要Java 21及以上版本");
+        RoomThread slow = new RoomThread("slow", true);
+        List<RoomThread> others = new ArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowDone = new CountDownLatch(1);
+        CountDownLatch othersDone = new CountDownLatch(ROOMS);
+        try {
+            slow.start();
+            // 模拟一个阻塞的房间（如同步日志、锁等待），共享平台线程时同一线程上的所有房间都会停顿
+            slow.executeTask(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slowDone.countDown();
+            });
+            for (int i = 0; i < ROOMS; i++) {
+                RoomThread roomThread = new RoomThread("room-" + i, true);
+                others.add(roomThread);
+                roomThread.start();
+                roomThread.executeTask(othersDone::countDown);
+            }
+
+            // 每个房间独占虚拟线程，其他房间的任务照常执行
+            assertTrue(othersDone.await(10, TimeUnit.SECONDS), "未执行的房间任务: " + othersDone.getCount());
+            assertEquals(1, slowDone.getCount());
+            release.countDown();
+            assertTrue(slowDone.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            slow.stopRunning();
+            for (RoomThread roomThread : others) {
+                roomThread.stopRunning();
+            }
+        }
+    }
+
+    @Test
+    void virtualModeIsRejectedOnOldRuntimes() {
+        assumeFalse(VirtualThreads.isSupported());
+        // RoomServiceManager据此回退到平台线程池
+        assertThrows(UnsupportedOperationException.class, () -> new RoomThread("room", true));
+    }
+
+    @Test
+    void eventLoopTasksRunOnTheLoopInOrder() throws Exception {
+        DefaultEventLoop eventLoop = new DefaultEventLoop();
+        RoomThread roomThread = new RoomThread("loop", eventLoop);
+        try {
+            int tasks = 100_000;
+            int[] next = new int[1];
+            boolean[] ordered = {true};
+            // 其他线程提交的任务直接进入EventLoop自己的队列，在EventLoop上按提交顺序执行
+            for (int i = 0; i < tasks; i++) {
+                int expected = i;
+                roomThread.executeTask(() -> {
+                    ordered[0] &= roomThread.inThread() && next[0] == expected;
+                    next[0]++;
+                });
+            }
+            boolean[] inline = new boolean[1];
+            eventLoop.submit(() -> {
+                // EventLoop上提交的任务立即执行
+                roomThread.executeTask(() -> inline[0] = true);
+                return inline[0];
+            }).get();
+
+            assertEquals(tasks, next[0]);
+            assertTrue(ordered[0]);
+            assertTrue(inline[0]);
+        } finally {
+            eventLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.game.ra2.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 测量当前线程在一段代码中分配的堆内存，用于验证热路径不分配对象
+ * <p>
+ * 基于HotSpot的线程分配计数（com.sun.management.ThreadMXBean），读取计数本身的开销先做校准再扣除。
+ * 测量前应先预热，让JIT完成编译，避免把解释执行和类加载的分配算进去。
+ */
+public final class AllocationMeter {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+    private static final long OVERHEAD = calibrate();
+
+    private AllocationMeter() {
+    }
+
+    /**
+     * 当前JVM是否支持线程分配计数，不支持时测量相关的测试应跳过
+     */
+    public static boolean isSupported() {
+        return THREADS != null;
+    }
+
+    /**
+     * 执行代码并返回当前线程在其中分配的字节数
+     * @param task 被测代码
+     * @return 分配的字节数，已扣除读取计数本身的开销
+     */
+    public static long measure(Runnable task) {
+        long threadId = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(threadId);
+        task.run();
+        long after = THREADS.getThreadAllocatedBytes(threadId);
+        return Math.max(0, after - before - OVERHEAD);
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static long calibrate() {
+        if (THREADS == null) {
+            return 0;
+        }
+        long threadId = Thread.currentThread().getId();
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long before = THREADS.getThreadAllocatedBytes(threadId);
+            long after = THREADS.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, after - before);
+        }
+        return overhead;
+    }
+}
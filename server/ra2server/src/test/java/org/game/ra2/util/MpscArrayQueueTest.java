@@ -0,0 +1,130 @@
+package org.game.ra2.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscArrayQueueTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new MpscArrayQueue<>(1).capacity());
+        assertEquals(8, new MpscArrayQueue<>(5).capacity());
+        assertEquals(16, new MpscArrayQueue<>(16).capacity());
+    }
+
+    @Test
+    void offerFailsWhenFullAndSucceedsAfterPoll() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void keepsFifoOrderAcrossWraparound() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(4);
+        int next = 0;
+        int expected = 0;
+        // 每轮写入3个取出3个，下标多次绕回数组开头
+        for (int round = 0; round < 1000; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(next++));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(expected++, queue.poll());
+            }
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void drainOnlyTakesElementsPresentAtCall() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(8);
+        queue.offer(1);
+        queue.offer(2);
+        List<Integer> seen = new ArrayList<>();
+        int drained = queue.drain(e -> {
+            seen.add(e);
+            // 处理过程中新到达的元素留到下一次drain
+            queue.offer(e + 10);
+        });
+        assertEquals(2, drained);
+        assertEquals(List.of(1, 2), seen);
+        assertEquals(2, queue.size());
+        assertEquals(11, queue.poll());
+        assertEquals(12, queue.poll());
+    }
+
+    @Test
+    void multipleProducersLoseOrDuplicateNothing() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        MpscArrayQueue<long[]> queue = new MpscArrayQueue<>(1024);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    long[] element = {producer, i};
+                    while (!queue.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        // 每个生产者的元素必须按写入顺序、不重不漏地到达
+        int[] nextSequence = new int[producers];
+        int total = producers * perProducer;
+        int received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        start.countDown();
+        while (received < total) {
+            long[] element = queue.poll();
+            if (element == null) {
+                assertTrue(System.nanoTime() < deadline, "消费超时，已收到 " + received);
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) element[0];
+            assertEquals(nextSequence[producer], element[1], "生产者 " + producer + " 的元素乱序或重复");
+            nextSequence[producer]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(queue.poll());
+        for (int p = 0; p < producers; p++) {
+            assertEquals(perProducer, nextSequence[p]);
+        }
+    }
+}